@@ -0,0 +1,181 @@
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.logging.Logger;
+
+
+/**
+ * AnswerSink
+ *
+ * Where Galactic writes its answers.  Answers are encoded straight into one
+ * large reusable byte buffer, which is written out when it fills up, after
+ * every flushLines answers (0 = only when full), and on flush()/close().
+ * The buffer goes either to an OutputStream (System.out by default) or,
+ * without any stream in between, to a FileChannel.
+ *
+ * Like PrintStream, the sink does not throw: a failed write is logged and
+ * remembered in checkError().
+ */
+public class AnswerSink {
+
+    private final static Logger _log = Logger.getLogger(AnswerSink.class.getName());
+
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    static final byte[] LINE_SEPARATOR = System.getProperty("line.separator").getBytes();
+
+    final byte[] buf;
+    final ByteBuffer wrapped;
+    int count = 0;
+
+    OutputStream out = null;
+    FileChannel channel = null;
+
+    int flushLines;
+    int pendingLines = 0;
+    boolean error = false;
+
+
+    public AnswerSink(OutputStream out) {
+        this(out, DEFAULT_BUFFER_SIZE, 0);
+    }
+
+    public AnswerSink(OutputStream out, int bufferSize, int flushLines) {
+        this(bufferSize, flushLines);
+        this.out = out;
+    }
+
+    public AnswerSink(FileChannel channel, int bufferSize, int flushLines) {
+        this(bufferSize, flushLines);
+        this.channel = channel;
+    }
+
+    private AnswerSink(int bufferSize, int flushLines) {
+        this.buf = new byte[Math.max(bufferSize, 16)];
+        this.wrapped = ByteBuffer.wrap(buf);
+        this.flushLines = flushLines;
+    }
+
+    /**
+     * A sink writing to the channel of the given (truncated) file
+     */
+    public static AnswerSink toFile(File f, int bufferSize, int flushLines) throws IOException {
+        return new AnswerSink(new FileOutputStream(f).getChannel(), bufferSize, flushLines);
+    }
+
+    /**
+     * Answers written between two automatic flushes - 0 flushes only when
+     * the buffer is full
+     */
+    public void setFlushLines(int flushLines) {
+        this.flushLines = flushLines;
+    }
+
+    public int getFlushLines() {
+        return flushLines;
+    }
+
+    /**
+     * Writes the answer followed by the line separator
+     */
+    public void println(CharSequence answer) {
+
+        int len = answer.length();
+        for (int i=0; i<len; i++) {
+            char c = answer.charAt(i);
+            if (c >= 0x80) {
+                // not ASCII: let the platform charset encode the rest
+                write(answer.subSequence(i, len).toString().getBytes());
+                break;
+            }
+            if (count == buf.length) {
+                drain();
+            }
+            buf[count++] = (byte) c;
+        }
+        write(LINE_SEPARATOR);
+
+        pendingLines++;
+        if (flushLines > 0 && pendingLines >= flushLines) {
+            flush();
+        }
+    }
+
+    void write(byte[] b) {
+        for (int i=0; i<b.length; i++) {
+            if (count == buf.length) {
+                drain();
+            }
+            buf[count++] = b[i];
+        }
+    }
+
+    /**
+     * Writes out the buffered bytes and flushes the underlying stream
+     */
+    public void flush() {
+        drain();
+        pendingLines = 0;
+        if (null != out) {
+            try {
+                out.flush();
+            } catch (IOException ie) {
+                fail(ie);
+            }
+        }
+    }
+
+    /**
+     * Writes out the buffered bytes
+     */
+    void drain() {
+
+        if (count == 0) {
+            return;
+        }
+        try {
+            if (null != channel) {
+                wrapped.clear();
+                wrapped.limit(count);
+                while (wrapped.hasRemaining()) {
+                    channel.write(wrapped);
+                }
+            } else {
+                out.write(buf, 0, count);
+            }
+        } catch (IOException ie) {
+            fail(ie);
+        }
+        count = 0;
+    }
+
+    void fail(IOException ie) {
+        if (!error) {
+            _log.severe("ERROR: Answer output failed - " + ie.getMessage());
+        }
+        error = true;
+    }
+
+    public boolean checkError() {
+        return error;
+    }
+
+    /**
+     * Flushes and closes a file channel; an OutputStream given to the sink
+     * (such as System.out) is only flushed
+     */
+    public void close() {
+        flush();
+        if (null != channel) {
+            try {
+                channel.close();
+            } catch (IOException ie) {
+                fail(ie);
+            }
+        }
+    }
+
+}
@@ -4,10 +4,16 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.InputStreamReader;
 import java.io.IOException;
+import java.math.BigInteger;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.logging.ConsoleHandler;
-import java.util.logging.Level;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.logging.Logger;
+import java.util.regex.Pattern;
 
 
 /**
@@ -26,12 +32,12 @@ import java.util.logging.Logger;
  *
  * System Requirement:  
  *
- *             JDK 1.6+   (Tested: 1.6 and 1.7)
+ *             JDK 1.7+   (Tested: 1.7; the parallel mode uses fork/join)
  *
  * * Usage:
  *
  *     To build: 
- *             javac -cp . Galactic.java
+ *             javac -cp . *.java
  *
  *     To run: 
  *             java -cp . Galactic
@@ -39,6 +45,27 @@ import java.util.logging.Logger;
  *     [ To run with finest/full tracing on:  
  *                     java -cp . -Ddebug Galactic ]
  *
+ *     [ To trace through a ring buffer of 65536 records, written out by a
+ *       background thread (see GalacticTrace):
+ *                     java -cp . -Ddebug -DtraceBuffer=65536 Galactic ]
+ *
+ *     [ To answer the questions on 4 worker threads:
+ *                     java -cp . -Dworkers=4 Galactic ]
+ *
+ *     [ To read the (ASCII) input file through a memory mapping:
+ *                     java -cp . -Dmmap Galactic ]
+ *
+ *     [ To record hot path metrics, logged every 10 seconds and at the end
+ *       (also published over JMX as Galactic:type=Metrics):
+ *                     java -cp . -Dmetrics=10 Galactic ]
+ *
+ *     [ To write the answers to a file, flushing every 1000 answers:
+ *                     java -cp . -Doutput=answers.txt -DflushLines=1000 Galactic ]
+ *
+ *     To keep the tables resident and answer questions from stdin or from
+ *     clients on a local port (see GalacticServer):
+ *             java -cp . GalacticServer [-stdin] [-port n] [specification file]
+ *
  *     Sample Input File:
  *             default_test_input.txt
  *
@@ -51,6 +78,11 @@ import java.util.logging.Logger;
  *    that this program will perform its calculations on.  The answers will be
  *    provided on standard output (stdout).
  *
+ *    With -Dworkers=n (n > 1) the specifications are still applied in input
+ *    order, while each run of question lines between two specifications is
+ *    answered on n fork/join workers.  The answers are printed in the
+ *    original input order.
+ *
  *
  * *** Disclaimer :) ***
  *    This program has been written under tight time constraints based on the
@@ -66,52 +98,124 @@ import java.util.logging.Logger;
 
 public class Galactic {
 
-    private final static Logger _log = Logger.getLogger(Galactic.class.getName());
+    /** FINE/FINEST tracing - configures the logger from -Ddebug once */
+    private final static GalacticTrace _trace = GalacticTrace.forClass(Galactic.class);
+
+    private final static Logger _log = _trace.logger();
+
+    /** Hot path counters and histograms - off unless -Dmetrics is given */
+    static final GalacticMetrics metrics = GalacticMetrics.create();
 
     public static final String DEFAULT_INPUT_FILE = "default_test_input.txt";
     
-    public static HashMap<String,Integer> valueTable = new HashMap();
+    public static final Map<String,Integer> valueTable;
     
     static {
-        valueTable.put("I", 1);
-        valueTable.put("V", 5);
-        valueTable.put("X", 10);
-        valueTable.put("L", 50);
-        valueTable.put("C", 100);
-        valueTable.put("D", 500);
-        valueTable.put("M", 1000);
+        HashMap<String,Integer> values = new HashMap<String,Integer>();
+        values.put("I", 1);
+        values.put("V", 5);
+        values.put("X", 10);
+        values.put("L", 50);
+        values.put("C", 100);
+        values.put("D", 500);
+        values.put("M", 1000);
+        valueTable = Collections.unmodifiableMap(values);
+    }
+
+    /**
+     * ASCII lookup table of the Roman numeral symbol values (0 = not a symbol);
+     * lower case symbols are folded onto upper case as convertRomanToArabic()
+     * has always done
+     */
+    static final int[] ROMAN_VALUES = new int[128];
+
+    static {
+        ROMAN_VALUES['I'] = ROMAN_VALUES['i'] = 1;
+        ROMAN_VALUES['V'] = ROMAN_VALUES['v'] = 5;
+        ROMAN_VALUES['X'] = ROMAN_VALUES['x'] = 10;
+        ROMAN_VALUES['L'] = ROMAN_VALUES['l'] = 50;
+        ROMAN_VALUES['C'] = ROMAN_VALUES['c'] = 100;
+        ROMAN_VALUES['D'] = ROMAN_VALUES['d'] = 500;
+        ROMAN_VALUES['M'] = ROMAN_VALUES['m'] = 1000;
     }
 
     static final String ROMAN_NUMERAL_PATTERN = "\\b(M{0,3})(CM|CD|D?C{0,3})(XC|XL|L?X{0,3})(IX|IV|V?I{0,3})\\b";
 
     static final String SPECIFICATION_UNIT_MAPPING_PATTERN = "^[(glob)|(prok)|(pish)|(tegj)]+( is )[IVXLCDM]$";  /** e.g. glob is I */
 
-    static final String SPECIFICATION_CREDITS_SAMPLE_PATTERN = "^[(glob\\s){0,2}|(prok\\s){0,2}|(pish\\s){0,2}|(tegj\\s){0,2}]+(Silver|Gold|Iron)\\s(is)\\s(\\d)+\\s(Credits)$"; // e.g. glob glob Silver is 34 Credits
+    static final String SPECIFICATION_CREDITS_SAMPLE_PATTERN = "^[(glob\\s){0,2}|(prok\\s){0,2}|(pish\\s){0,2}|(tegj\\s){0,2}]+([A-Z][A-Za-z]*)\\s(is)\\s(\\d)+\\s(Credits)$"; // e.g. glob glob Silver is 34 Credits
 
     static final String QUESTION_UNIT_VALUE_PATTERN = "^(how much is)\\s[(glob\\s)|(prok\\s)|(pish\\s)|(tegj\\s)]+(\\s\\?)$"; /* e.g. how much is pish tegj glob glob ? */
 
-    static final String QUESTION_TOTAL_CREDITS_PATTERN = "^(how many Credits is)\\s[(glob\\s)|(prok\\s)|(pish\\s)|(tegj\\s)]+(Silver|Gold|Iron)(\\s\\?)$"; /** e.g. how many Credits is glob prok Silver ? */
+    static final String QUESTION_TOTAL_CREDITS_PATTERN = "^(how many Credits is)\\s[A-Za-z\\s]+\\s\\?$"; /** e.g. how many Credits is glob prok Silver ? (or glob glob Silver pish Gold ?) - the terms are checked by GalacticQueryPlan.compile() */
+
+    /**
+     * Precompiled forms of the specification patterns above - String.matches()
+     * would recompile the regex on every line.  The question patterns are a
+     * prefix, one character class and " ?", and are matched by
+     * matchesQuestion() without the regex engine.
+     */
+    static final Pattern UNIT_MAPPING_REGEX = Pattern.compile(SPECIFICATION_UNIT_MAPPING_PATTERN);
+    static final Pattern CREDITS_SAMPLE_REGEX = Pattern.compile(SPECIFICATION_CREDITS_SAMPLE_PATTERN);
+
+    /** The character classes of the question patterns, less \s */
+    static final String UNIT_VALUE_CHARS = "(glob)|(prok)|(pish)|(tegj)";
+    static final String TOTAL_CREDITS_CHARS = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz";
+
+    static final String UNIT_VALUE_PREFIX = "how much is";
+    static final String TOTAL_CREDITS_PREFIX = "how many Credits is";
+    static final String CREDITS_SUFFIX = "Credits";
+
+    /** Line types as picked by classifyLine() */
+    static final int LINE_UNKNOWN = 0;
+    static final int LINE_UNIT_MAPPING = 1;
+    static final int LINE_CREDITS_SAMPLE = 2;
+    static final int LINE_UNIT_VALUE = 3;
+    static final int LINE_TOTAL_CREDITS = 4;
+
+    private static final String[] NO_TOKENS = new String[0];
+
+    /** Question lines collected before a parallel batch is answered and printed */
+    static final int PARALLEL_BATCH_SIZE = 8192;
+
+    /** Question lines below which a fork/join task stops splitting */
+    static final int PARALLEL_SPLIT_THRESHOLD = 256;
+
+    static final String UNKNOWN_ANSWER = "I have no idea what you are talking about";
+
+    /** Default number of unit phrases kept by the unit value cache (-DcacheSize=n) */
+    public static final int DEFAULT_CACHE_SIZE = 1024;
     
 
     public String filename = null;
-    public HashMap<String,String> unitMap = new HashMap();
-    public HashMap<String,Float> metalPerUnitCostMap = new HashMap();
+
+    /**
+     * The unit and metal price tables - an immutable snapshot that readers
+     * take without locking and writers replace (copy-on-write)
+     */
+    final AtomicReference<GalacticTables> tables = new AtomicReference<GalacticTables>(
+            new GalacticTables(Integer.getInteger("cacheSize", DEFAULT_CACHE_SIZE).intValue()));
+
+    final AtomicLong cacheHits = new AtomicLong();
+    final AtomicLong cacheMisses = new AtomicLong();
+
+    /** Compiled question plans by question shape (-DplanCacheSize=n) */
+    final GalacticQueryPlan.PlanCache plans = new GalacticQueryPlan.PlanCache(
+            Integer.getInteger("planCacheSize", DEFAULT_CACHE_SIZE).intValue());
+
+    final AtomicLong planCompiles = new AtomicLong();
+
+    int workers = Integer.getInteger("workers", 1).intValue();
+
+    boolean mapped = (null != System.getProperty("mmap"));
+
+    AnswerSink output = null;
 
 
     /**
      * Galactic: the constructor
      */
     public Galactic() {
-
-        if (null != System.getProperty("debug")) {
-            ConsoleHandler handler = new ConsoleHandler();
-            handler.setLevel(Level.FINEST);
-            _log.setLevel(Level.FINEST);
-            _log.addHandler(handler);
-        } else {
-            _log.setLevel(Level.INFO);
-        }
-
     }
             
     /**
@@ -125,6 +229,85 @@ public class Galactic {
         return filename;
     }
 
+    /**
+     * Number of threads answering questions - 1 processes the file serially
+     */
+    public void setWorkers(int workers) {
+        this.workers = workers;
+    }
+
+    public int getWorkers() {
+        return workers;
+    }
+
+    /**
+     * Read the input file through MappedLineReader rather than a BufferedReader
+     */
+    public void setMapped(boolean mapped) {
+        this.mapped = mapped;
+    }
+
+    public boolean isMapped() {
+        return mapped;
+    }
+
+    /**
+     * Where the answers go - by default a buffered sink over System.out that
+     * flushes every -DflushLines=n answers (default: when full), or over the
+     * channel of the file named by -Doutput=path
+     */
+    public void setOutput(AnswerSink output) {
+        this.output = output;
+    }
+
+    public AnswerSink getOutput() {
+
+        if (null == output) {
+            int flushLines = Integer.getInteger("flushLines", 0).intValue();
+            String path = System.getProperty("output");
+            if (null != path) {
+                try {
+                    output = AnswerSink.toFile(new File(path), AnswerSink.DEFAULT_BUFFER_SIZE, flushLines);
+                } catch (IOException ie) {
+                    _log.severe("ERROR: Unable to open output file (" + path + "), using stdout");
+                }
+            }
+            if (null == output) {
+                output = new AnswerSink(System.out, AnswerSink.DEFAULT_BUFFER_SIZE, flushLines);
+            }
+        }
+        return output;
+    }
+
+    /**
+     * LineSource: where processFile() takes its lines from
+     */
+    interface LineSource {
+        CharSequence readLine() throws IOException;
+        void close() throws IOException;
+    }
+
+    /**
+     * Opens the input file as a LineSource - either memory mapped or through
+     * a BufferedReader
+     */
+    LineSource openLineSource(File f) throws IOException {
+
+        if (isMapped()) {
+            return new MappedLineReader(f);
+        }
+
+        final BufferedReader inbuf = new BufferedReader(new InputStreamReader(new FileInputStream(f)));
+        return new LineSource() {
+            public CharSequence readLine() throws IOException {
+                return inbuf.readLine();
+            }
+            public void close() throws IOException {
+                inbuf.close();
+            }
+        };
+    }
+
 
     /**
      * Reads the input file
@@ -137,14 +320,18 @@ public class Galactic {
             return;
         }
         
-        BufferedReader inbuf = null;
+        LineSource inbuf = null;
         try {
-            inbuf = new BufferedReader(new InputStreamReader(new FileInputStream(f)));
-            String theLine = null;
-            while (null != (theLine = inbuf.readLine())) {
+            inbuf = openLineSource(f);
+            if (getWorkers() > 1) {
+                processLinesParallel(inbuf);
+            } else {
+                CharSequence theLine = null;
+                while (null != (theLine = inbuf.readLine())) {
 
-                processLine(theLine);
+                    emitLine(theLine);
 
+                }
             }
         } catch (FileNotFoundException fnfe) {  //should not reach this - so just in case
             _log.severe("ERROR: Invalid test input file (" +getFilename()+ ")");
@@ -160,37 +347,418 @@ public class Galactic {
                 try {
                     inbuf.close();
                 } catch (Exception e) {
-                    _log.severe("ERROR: BufferedReader close!\n");
+                    _log.severe("ERROR: Input file close!\n");
                 }
             }
+            getOutput().flush();
+        }
+
+        if (_trace.isFine()) {
+            _trace.fine("Unit value cache: " + getCacheSize() + " entries, " + getCacheHits() + " hits, " + getCacheMisses() + " misses");
+            _trace.fine("Query plans: " + getPlanCacheSize() + " cached, " + getPlanCompiles() + " compiled");
         }
+        if (metrics.enabled) {
+            metrics.logSummary();
+        }
+        GalacticTrace.flush();
 
     }
 
+    /**
+     * Reads the lines in two phases: specifications are applied in input
+     * order on the calling thread, and the question lines in between are
+     * collected into batches that are answered on a fork/join pool of
+     * getWorkers() threads and printed in input order.
+     */
+    void processLinesParallel(LineSource inbuf) throws IOException {
+
+        ForkJoinPool pool = new ForkJoinPool(getWorkers());
+        try {
+            String[] lines = new String[PARALLEL_BATCH_SIZE];
+            int[] lineTypes = new int[PARALLEL_BATCH_SIZE];
+            String[] answers = new String[PARALLEL_BATCH_SIZE];
+            int count = 0;
+
+            CharSequence theLine = null;
+            while (null != (theLine = inbuf.readLine())) {
+
+                theLine = trim(theLine);
+
+                // questions are classified by the workers; anything else may
+                // be a specification and has to be looked at here, in order
+                int lineType = -1;
+                if (!startsWith(theLine, UNIT_VALUE_PREFIX) && !startsWith(theLine, TOTAL_CREDITS_PREFIX)) {
+                    lineType = classifyLine(theLine);
+                    if (lineType == LINE_UNIT_MAPPING || lineType == LINE_CREDITS_SAMPLE) {
+                        count = answerBatch(pool, lines, lineTypes, answers, count);
+                        answerLine(theLine, lineType);
+                        continue;
+                    }
+                }
+
+                // the line is handed to another thread, so it has to outlive
+                // a reused (memory mapped) view
+                lines[count] = theLine.toString();
+                lineTypes[count] = lineType;
+                count++;
+                if (count == lines.length) {
+                    count = answerBatch(pool, lines, lineTypes, answers, count);
+                }
+            }
+            answerBatch(pool, lines, lineTypes, answers, count);
+
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Answers and prints the first count question lines; returns the new
+     * (empty) batch size
+     */
+    int answerBatch(ForkJoinPool pool, String[] lines, int[] lineTypes, String[] answers, int count) {
+
+        if (count > 0) {
+            pool.invoke(new QuestionTask(lines, lineTypes, answers, 0, count));
+            AnswerSink out = getOutput();
+            for (int i=0; i<count; i++) {
+                println(out, answers[i]);
+                lines[i] = null;
+                answers[i] = null;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * QuestionTask: answers the question lines [from, to) of a batch,
+     * splitting in halves down to PARALLEL_SPLIT_THRESHOLD lines
+     */
+    class QuestionTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        final String[] lines;
+        final int[] lineTypes;
+        final String[] answers;
+        final int from;
+        final int to;
+
+        QuestionTask(String[] lines, int[] lineTypes, String[] answers, int from, int to) {
+            this.lines = lines;
+            this.lineTypes = lineTypes;
+            this.answers = answers;
+            this.from = from;
+            this.to = to;
+        }
+
+        protected void compute() {
+            if (to - from <= PARALLEL_SPLIT_THRESHOLD) {
+                for (int i=from; i<to; i++) {
+                    int lineType = lineTypes[i];
+                    answers[i] = (lineType < 0) ? answerQuestion(lines[i]) : answerLine(lines[i], lineType);
+                }
+            } else {
+                int mid = (from + to) >>> 1;
+                invokeAll(new QuestionTask(lines, lineTypes, answers, from, mid),
+                          new QuestionTask(lines, lineTypes, answers, mid, to));
+            }
+        }
+    }
+
     /**
      * Processes the instruction as provided in the line
      */
     public void processLine(String theLine) {
+        processLine((CharSequence) theLine);
+    }
+
+    /**
+     * Processes the instruction as provided in the line, without turning it
+     * into a String unless one of its tokens is needed; the answer is
+     * flushed right away
+     */
+    public void processLine(CharSequence theLine) {
+        emitLine(theLine);
+        getOutput().flush();
+    }
+
+    /**
+     * Processes the line and leaves its answer in the output buffer
+     */
+    void emitLine(CharSequence theLine) {
         
-        theLine = theLine.trim();
-
-        if (theLine.matches(SPECIFICATION_UNIT_MAPPING_PATTERN)) {
-            _log.finest("Line - Specification of Unit Mapping:\t" + theLine);
-            processUnitMapping(theLine);
-        } else if (theLine.matches(SPECIFICATION_CREDITS_SAMPLE_PATTERN)) {
-            _log.finest("Line - Specification of Credit Sample:\t" + theLine);
-            processCreditsSample(theLine);
-        } else if (theLine.matches(QUESTION_UNIT_VALUE_PATTERN)) {
-            _log.finest("Line - Question of Unit Value:\t" + theLine);
-            processUnitValue(theLine);
-        } else if (theLine.matches(QUESTION_TOTAL_CREDITS_PATTERN)) {
-            _log.finest("Line - Question of Total Credits:\t" + theLine);
-            processTotalCredits(theLine);
+        String answer = answer(theLine);
+        if (null != answer) {
+            println(getOutput(), answer);
+        }
 
-        } else {
-            System.out.println("I have no idea what you are talking about");
-        }        
+    }
+
+    /**
+     * Writes one answer, timed as OUTPUT when metrics are on
+     */
+    static void println(AnswerSink out, String answer) {
+        if (!metrics.enabled) {
+            out.println(answer);
+            return;
+        }
+        long start = System.nanoTime();
+        out.println(answer);
+        metrics.record(GalacticMetrics.OUTPUT, System.nanoTime() - start);
+    }
+
+    /**
+     * Applies a specification line (returns null) or returns the answer to a
+     * question line, without writing anything to the output
+     */
+    public String answer(CharSequence theLine) {
+        theLine = trim(theLine);
+        if (startsWith(theLine, UNIT_VALUE_PREFIX) || startsWith(theLine, TOTAL_CREDITS_PREFIX)) {
+            return answerQuestion(theLine);
+        }
+        return answerLine(theLine, classifyLine(theLine));
+    }
+
+    /**
+     * Answers a trimmed question line by running the query plan of its
+     * shape, which is compiled and cached the first time the shape is seen
+     */
+    String answerQuestion(CharSequence theLine) {
+
+        if (!metrics.enabled) {
+            return runQuestion(theLine, classifyLine(theLine));
+        }
+        long start = System.nanoTime();
+        int lineType = classifyLine(theLine);
+        String answer = runQuestion(theLine, lineType);
+        metrics.record(lineMetric(lineType), System.nanoTime() - start);
+        return answer;
+    }
+
+    private String runQuestion(CharSequence theLine, int lineType) {
+
+        if (_trace.isFinest()) {
+            if (lineType == LINE_UNIT_VALUE) {
+                _trace.finest("Line - Question of Unit Value:\t", theLine);
+            } else if (lineType == LINE_TOTAL_CREDITS) {
+                _trace.finest("Line - Question of Total Credits:\t", theLine);
+            }
+        }
+        if (lineType != LINE_UNIT_VALUE && lineType != LINE_TOTAL_CREDITS) {
+            return UNKNOWN_ANSWER;
+        }
+
+        String[] tokens = tokenize(theLine);
+        return queryPlan(GalacticQueryPlan.shape(lineType, tokens)).answer(this, tables.get(), tokens);
+    }
+
+    GalacticQueryPlan queryPlan(String shape) {
+
+        GalacticQueryPlan plan = plans.get(shape);
+        if (null == plan) {
+            plan = compilePlan(shape);
+            plans.put(plan);
+        }
+        return plan;
+    }
+
+    GalacticQueryPlan compilePlan(String shape) {
+
+        planCompiles.incrementAndGet();
+        if (!metrics.enabled) {
+            return GalacticQueryPlan.compile(shape);
+        }
+        long start = System.nanoTime();
+        GalacticQueryPlan plan = GalacticQueryPlan.compile(shape);
+        metrics.record(GalacticMetrics.PLAN_COMPILE, System.nanoTime() - start);
+        return plan;
+    }
+
+    /**
+     * Applies a specification line (returns null) or answers a question line
+     * of the given line type
+     */
+    String answerLine(CharSequence theLine, int lineType) {
+
+        if (!metrics.enabled) {
+            return handleLine(theLine, lineType);
+        }
+        long start = System.nanoTime();
+        String answer = handleLine(theLine, lineType);
+        metrics.record(lineMetric(lineType), System.nanoTime() - start);
+        return answer;
+    }
+
+    static int lineMetric(int lineType) {
+        switch (lineType) {
+        case LINE_UNIT_MAPPING:
+            return GalacticMetrics.UNIT_MAPPING;
+        case LINE_CREDITS_SAMPLE:
+            return GalacticMetrics.CREDITS_SAMPLE;
+        case LINE_UNIT_VALUE:
+            return GalacticMetrics.UNIT_VALUE;
+        case LINE_TOTAL_CREDITS:
+            return GalacticMetrics.TOTAL_CREDITS;
+        default:
+            return GalacticMetrics.UNRECOGNIZED;
+        }
+    }
 
+    private String handleLine(CharSequence theLine, int lineType) {
+
+        switch (lineType) {
+        case LINE_UNIT_MAPPING:
+            _trace.finest("Line - Specification of Unit Mapping:\t", theLine);
+            processUnitMapping(tokenize(theLine));
+            return null;
+        case LINE_CREDITS_SAMPLE:
+            _trace.finest("Line - Specification of Credit Sample:\t", theLine);
+            processCreditsSample(tokenize(theLine));
+            return null;
+        case LINE_UNIT_VALUE:
+        case LINE_TOTAL_CREDITS:
+            return runQuestion(theLine, lineType);
+        default:
+            return UNKNOWN_ANSWER;
+        }
+
+    }
+
+    /**
+     * Picks the line type of an already trimmed line.
+     *
+     * The four line patterns are mutually exclusive on their leading and
+     * trailing words, so a cheap prefix/suffix check selects the single
+     * precompiled pattern that can possibly match, and only that one is run.
+     */
+    static int classifyLine(CharSequence theLine) {
+
+        if (!metrics.enabled) {
+            return matchLine(theLine);
+        }
+        long start = System.nanoTime();
+        int lineType = matchLine(theLine);
+        metrics.record(GalacticMetrics.CLASSIFY, System.nanoTime() - start);
+        return lineType;
+    }
+
+    private static int matchLine(CharSequence theLine) {
+
+        if (startsWith(theLine, UNIT_VALUE_PREFIX)) {
+            return matchesQuestion(theLine, UNIT_VALUE_PREFIX, UNIT_VALUE_CHARS) ? LINE_UNIT_VALUE : LINE_UNKNOWN;
+        } 
+        if (startsWith(theLine, TOTAL_CREDITS_PREFIX)) {
+            return matchesQuestion(theLine, TOTAL_CREDITS_PREFIX, TOTAL_CREDITS_CHARS) ? LINE_TOTAL_CREDITS : LINE_UNKNOWN;
+        }
+        if (endsWith(theLine, CREDITS_SUFFIX)) {
+            return CREDITS_SAMPLE_REGEX.matcher(theLine).matches() ? LINE_CREDITS_SAMPLE : LINE_UNKNOWN;
+        }
+        return UNIT_MAPPING_REGEX.matcher(theLine).matches() ? LINE_UNIT_MAPPING : LINE_UNKNOWN;
+    }
+
+    /**
+     * Splits a trimmed line on whitespace - same result as split("\\s+")
+     * without going through the regex engine
+     */
+    static String[] tokenize(CharSequence theLine) {
+
+        int len = theLine.length();
+        int count = 0;
+        boolean inToken = false;
+        for (int i=0; i<len; i++) {
+            if (isSpace(theLine.charAt(i))) {
+                inToken = false;
+            } else if (!inToken) {
+                inToken = true;
+                count++;
+            }
+        }
+
+        if (count == 0) {
+            return NO_TOKENS;
+        }
+
+        String[] tokens = new String[count];
+        int t = 0;
+        int start = -1;
+        for (int i=0; i<=len; i++) {
+            if (i == len || isSpace(theLine.charAt(i))) {
+                if (start >= 0) {
+                    tokens[t++] = theLine.subSequence(start, i).toString();
+                    start = -1;
+                }
+            } else if (start < 0) {
+                start = i;
+            }
+        }
+        return tokens;
+    }
+
+    /**
+     * String.trim() for any CharSequence - the same instance is returned when
+     * there is nothing to trim
+     */
+    static CharSequence trim(CharSequence theLine) {
+
+        int start = 0;
+        int end = theLine.length();
+        while (start < end && theLine.charAt(start) <= ' ') {
+            start++;
+        }
+        while (end > start && theLine.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        return (start == 0 && end == theLine.length()) ? theLine : theLine.subSequence(start, end);
+    }
+
+    /**
+     * Whether the line matches ^(prefix)\s[chars\s]+\s\?$ - the form of both
+     * question patterns: the prefix and a space, at least one character of
+     * the class, and a space and "?"
+     */
+    static boolean matchesQuestion(CharSequence theLine, String prefix, String chars) {
+
+        int len = theLine.length();
+        int start = prefix.length() + 1;
+        int end = len - 2;
+        if (end <= start || !startsWith(theLine, prefix) || !isSpace(theLine.charAt(start - 1))
+            || !isSpace(theLine.charAt(end)) || theLine.charAt(len - 1) != '?') {
+            return false;
+        }
+        for (int i=start; i<end; i++) {
+            char c = theLine.charAt(i);
+            if (!isSpace(c) && chars.indexOf(c) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static boolean startsWith(CharSequence theLine, String prefix) {
+        return regionEquals(theLine, 0, prefix);
+    }
+
+    static boolean endsWith(CharSequence theLine, String suffix) {
+        return regionEquals(theLine, theLine.length() - suffix.length(), suffix);
+    }
+
+    static boolean regionEquals(CharSequence theLine, int offset, String s) {
+
+        if (offset < 0 || offset + s.length() > theLine.length()) {
+            return false;
+        }
+        for (int i=0; i<s.length(); i++) {
+            if (theLine.charAt(offset + i) != s.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** The regex \s character class: [ \t\n\x0B\f\r] */
+    static boolean isSpace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\013' || c == '\f' || c == '\r';
     }
     
     /**
@@ -198,76 +766,159 @@ public class Galactic {
      *
      * Method: Build the Unit Mapping table
      */
-    void processUnitMapping(String theLine) {
-        String[] tokens = theLine.split("\\s+");
+    void processUnitMapping(String[] tokens) {
         if (tokens.length == 3) {
-            unitMap.put(tokens[0], tokens[2]);
+            defineUnit(tokens[0], romanValueAt(tokens[2], 0));
         }
     }
     
     /**
-     * Specification sample: <Roman numeral symbol 1> <Roman numeral symbol 2> <Metal> is <Number> Credits
+     * Specification sample: <Unit 1> ... <Unit n> <Metal> is <Number> Credits
      * 
      * Method: Build the Metal Per-Unit Cost Mapping table
      */
-    void processCreditsSample(String theLine) {
-        String[] tokens = theLine.split("\\s+");
-        
-        String romanNum = unitMap.get(tokens[0]) + unitMap.get(tokens[1]);
-        int numUnits = convertRomanToArabic(romanNum);
+    void processCreditsSample(String[] tokens) {
 
-        String metal = tokens[2];
-        String credits = tokens[4];
-        float perUnitCost = Float.parseFloat(credits) / numUnits;
-        metalPerUnitCostMap.put(metal, Float.valueOf(perUnitCost));
+        int metalIndex = tokens.length - 4;
+        int numUnits = resolveUnitValue(tables.get(), unitPhrase(tokens, 0, metalIndex), tokens, 0, metalIndex);
+
+        String metal = tokens[metalIndex];
+        long credits;
+        try {
+            credits = Long.parseLong(tokens[metalIndex + 2]);
+        } catch (NumberFormatException nfe) {
+            _log.severe("ERROR: Credits out of range (" + tokens[metalIndex + 2] + ")\n");
+            return;
+        }
+        if (numUnits <= 0) {
+            _log.severe("ERROR: Credits sample for no units (" + metal + ")\n");
+            return;
+        }
+        defineMetalPrice(metal, credits, numUnits);
     }
 
     /**
-     * Question: how much is <Unit 1> <Unit 2> <Unit 3> <Unit 4> ?
-     *
-     * Method: Calculate the Arabic numberic equivalent value of the given Roman Numerals as expressed in Galactic units
+     * The unit phrase of tokens[from..to), each token followed by a space
+     * (e.g. "glob prok "), as the unit value cache is keyed
      */
-    void processUnitValue(String theLine) {
-        String[] tokens = theLine.split("\\s+");
-
-        StringBuilder romanNumBuf = new StringBuilder();
+    static String unitPhrase(String[] tokens, int from, int to) {
         StringBuilder unitBuf = new StringBuilder();
-        for (int i=3; i < (tokens.length-1); i++) {
-            romanNumBuf.append(unitMap.get(tokens[i]));
+        for (int i=from; i<to; i++) {
             unitBuf.append(tokens[i]);
             unitBuf.append(" ");
         }
-        
-        System.out.println(unitBuf.toString() + "is " + convertRomanToArabic(romanNumBuf.toString()));
-    }        
-                           
+        return unitBuf.toString();
+    }
+
     /**
-     * Question: how many Credits is <Unit 1> <Unit 2> <Metal> ?
+     * Appends the exact total of numUnits at a price of credits/units,
+     * rounded half up to a whole number of credits.
      *
-     * Method: Calculate the Total Number of Credits for the given Galactic units of the Metal
+     * The total is (2 * numUnits * credits + units) / (2 * units) in long
+     * arithmetic whenever that cannot overflow, and in BigInteger otherwise.
      */
-    void processTotalCredits(String theLine) {
-        String[] tokens = theLine.split("\\s+");
+    static StringBuilder appendCredits(StringBuilder sb, long numUnits, long credits, int units) {
 
-        StringBuilder romanNumBuf = new StringBuilder();
-        StringBuilder unitBuf = new StringBuilder();
-        for (int i=4; i<6; i++) {
-            romanNumBuf.append(unitMap.get(tokens[i]));
-            unitBuf.append(tokens[i]);
-            unitBuf.append(" ");
+        if (numUnits >= 0 && credits >= 0
+            && (credits == 0 || numUnits <= (Long.MAX_VALUE / 2 - units) / credits)) {
+            return sb.append((2 * numUnits * credits + units) / (2L * units));
         }
 
-        StringBuilder sb = new StringBuilder();
-        sb.append(unitBuf).append(tokens[6]).append(" is ");
+        BigInteger twiceUnits = BigInteger.valueOf(2L * units);
+        BigInteger total = BigInteger.valueOf(numUnits).multiply(BigInteger.valueOf(credits)).shiftLeft(1);
+        return sb.append(total.add(BigInteger.valueOf(units)).divide(twiceUnits));
+    }
 
-        int numUnits = convertRomanToArabic(romanNumBuf.toString());
-        float metalPerUnitCost = (metalPerUnitCostMap.get(tokens[6])).floatValue();
-        float totalCredits = numUnits * metalPerUnitCost;
+    /**
+     * Defines (or redefines) a unit as the given Roman symbol value
+     */
+    public void defineUnit(String unit, int symbolValue) {
+        GalacticTables current;
+        do {
+            current = tables.get();
+        } while (!tables.compareAndSet(current, current.withUnit(unit, symbolValue)));
+    }
 
-        sb.append(String.format("%.0f", Float.valueOf(totalCredits)));
-        sb.append(" Credits");
-        
-        System.out.println(sb.toString());
+    /**
+     * Defines (or redefines) the price of a metal as credits for numUnits
+     * units (numUnits > 0), kept as an exact fraction
+     */
+    public void defineMetalPrice(String metal, long credits, int numUnits) {
+        GalacticTables current;
+        do {
+            current = tables.get();
+        } while (!tables.compareAndSet(current, current.withMetalPrice(metal, credits, numUnits)));
+    }
+
+    /**
+     * Roman symbol value of the unit, 0 when it is not defined
+     */
+    public int getUnitValue(String unit) {
+        return tables.get().unitValue(unit);
+    }
+
+    /**
+     * Per-unit price of the metal (for display - the totals are computed
+     * from the exact fraction), NaN when it is not defined
+     */
+    public double getMetalPrice(String metal) {
+        GalacticTables t = tables.get();
+        int i = t.findMetal(metal);
+        return (i < 0) ? Double.NaN : (double) t.metalCredits[i] / t.metalUnits[i];
+    }
+
+    /**
+     * Resolves the Arabic value of the Galactic units tokens[from..to) in the
+     * given snapshot, going through its unit value cache keyed on the unit
+     * phrase.  Undefined units count as 0, which makes the numeral invalid.
+     */
+    int resolveUnitValue(GalacticTables t, String units, String[] tokens, int from, int to) {
+
+        int cached = t.cache.get(units);
+        if (cached >= 0) {
+            cacheHits.incrementAndGet();
+            return cached;
+        }
+        cacheMisses.incrementAndGet();
+
+        int[] symbols = new int[to - from];
+        for (int i=from; i<to; i++) {
+            symbols[i - from] = t.unitValue(tokens[i]);
+        }
+
+        long start = metrics.enabled ? System.nanoTime() : 0;
+        int value = decodeRoman(symbols, symbols.length);
+        if (metrics.enabled) {
+            metrics.record(GalacticMetrics.ROMAN_DECODE, System.nanoTime() - start);
+        }
+        if (value < 0) {
+            _log.severe("ERROR: Invalid input value!\n");
+            value = sumRoman(symbols, symbols.length);
+        }
+        _trace.finest("Units: ", units, "- Arabic equivalent value: ", value);
+
+        t.cache.put(units, value);
+        return value;
+    }
+
+    public long getCacheHits() {
+        return cacheHits.get();
+    }
+
+    public long getCacheMisses() {
+        return cacheMisses.get();
+    }
+
+    public int getCacheSize() {
+        return tables.get().cache.size();
+    }
+
+    public long getPlanCompiles() {
+        return planCompiles.get();
+    }
+
+    public int getPlanCacheSize() {
+        return plans.size();
     }
 
 
@@ -275,60 +926,160 @@ public class Galactic {
      * Converts the Roman numerals to its equivalent Arabic value
      */
     public static int convertRomanToArabic(String romanVal) {
-        
-        if (null != romanVal) {
+        return convertRomanToArabic((CharSequence) romanVal);
+    }
 
-            _log.finest("Input - Roman Value: " + romanVal);
-            
-            romanVal = romanVal.toUpperCase();
+    /**
+     * Converts the Roman numerals to its equivalent Arabic value without
+     * copying the given characters (e.g. straight out of a StringBuilder)
+     *
+     * An invalid numeral is reported and then summed symbol by symbol, the
+     * same way calResultString() always has.
+     */
+    public static int convertRomanToArabic(CharSequence romanVal) {
 
-            if (romanVal.matches(ROMAN_NUMERAL_PATTERN)) {
-                _log.finest("Arabic equivalent value: " + calResultString(romanVal));
-            } else {
-                _log.severe("ERROR: Invalid input value!\n");
-            }
-            
-        } else {
+        if (null == romanVal) {
             _log.severe("ERROR: Invalid NULL input value!\n");
+            return 0;
         }
 
-        return Integer.parseInt(calResultString(romanVal));
+        _trace.finest("Input - Roman Value: ", romanVal);
 
-    } 
+        long start = metrics.enabled ? System.nanoTime() : 0;
+        int arabicVal = decodeRoman(romanVal);
+        if (metrics.enabled) {
+            metrics.record(GalacticMetrics.ROMAN_DECODE, System.nanoTime() - start);
+        }
+        if (arabicVal < 0) {
+            _log.severe("ERROR: Invalid input value!\n");
+            return sumRoman(romanVal);
+        }
+
+        _trace.finest("Arabic equivalent value: ", arabicVal);
+        return arabicVal;
+    }
 
     /**
-     * Helper method to 'calculate' the Arabic value and returns as String
+     * Validates and decodes a Roman numeral in a single pass.
+     *
+     * Accepts exactly what ROMAN_NUMERAL_PATTERN accepts (1 - 3999, either
+     * case) and returns -1 for anything else.  Nothing is allocated.
      */
-    protected static String calResultString(String romanVal) {
+    public static int decodeRoman(CharSequence romanVal) {
+        return decodeRoman(romanVal, null, romanVal.length());
+    }
+
+    /**
+     * decodeRoman() over symbol values (1, 5, 10, ... 0 = not a symbol)
+     * rather than characters
+     */
+    static int decodeRoman(int[] symbols, int len) {
+        return decodeRoman(null, symbols, len);
+    }
+
+    /**
+     * The decoder behind both decodeRoman() forms - reads the symbols from
+     * the array when one is given, else from the characters
+     */
+    private static int decodeRoman(CharSequence romanVal, int[] symbols, int len) {
+
+        if (len == 0) {
+            return -1;
+        }
+
+        int pos = 0;
+        int result = 0;
+
+        // thousands: M{0,3}
+        while (pos < len && pos < 3 && symbolAt(romanVal, symbols, pos) == 1000) {
+            result += 1000;
+            pos++;
+        }
+
+        // hundreds, tens and ones: (9|4|5?1{0,3}) of each decade
+        for (int unit = 100; unit > 0; unit /= 10) {
+            if (pos == len) {
+                break;
+            }
+            int v = symbolAt(romanVal, symbols, pos);
+            int next = (pos + 1 < len) ? symbolAt(romanVal, symbols, pos + 1) : 0;
+
+            if (v == unit && next == unit * 10) {
+                result += 9 * unit;
+                pos += 2;
+                continue;
+            }
+            if (v == unit && next == unit * 5) {
+                result += 4 * unit;
+                pos += 2;
+                continue;
+            }
+            if (v == unit * 5) {
+                result += v;
+                pos++;
+            }
+            int count = 0;
+            while (pos < len && count < 3 && symbolAt(romanVal, symbols, pos) == unit) {
+                result += unit;
+                pos++;
+                count++;
+            }
+        }
+
+        return (pos == len) ? result : -1;
+    }
+
+    private static int symbolAt(CharSequence romanVal, int[] symbols, int index) {
+        return (null != symbols) ? symbols[index] : romanValueAt(romanVal, index);
+    }
+
+    /**
+     * Value of the symbol at the given index, 0 when it is not a Roman symbol
+     */
+    static int romanValueAt(CharSequence romanVal, int index) {
+        char c = romanVal.charAt(index);
+        return (c < ROMAN_VALUES.length) ? ROMAN_VALUES[c] : 0;
+    }
+
+    /**
+     * Sums the symbols with the usual subtractive pairs (CM, CD, XC, XL, IX,
+     * IV) without checking that the numeral is well formed
+     */
+    static int sumRoman(CharSequence romanVal) {
+        return sumRoman(romanVal, null, romanVal.length());
+    }
+
+    static int sumRoman(int[] symbols, int len) {
+        return sumRoman(null, symbols, len);
+    }
+
+    private static int sumRoman(CharSequence romanVal, int[] symbols, int len) {
 
-        char[] chars = romanVal.toCharArray();
         int calResult = 0;
-        for (int i=0; i<chars.length; i++) {
-            
-            if ( !(i == chars.length - 1 ) ) {
-                if ( (('C' == chars[i]) && ('M' == chars[i+1])) ||
-                     (('C' == chars[i]) && ('D' == chars[i+1])) ||
-                     (('X' == chars[i]) && ('C' == chars[i+1])) ||
-                     (('X' == chars[i]) && ('L' == chars[i+1])) ||
-                     (('I' == chars[i]) && ('X' == chars[i+1])) ||
-                     (('I' == chars[i]) && ('V' == chars[i+1])) ) {
-
-                    calResult = calResult + getIntVal(chars[i+1]) - getIntVal(chars[i]);
+        for (int i=0; i<len; i++) {
+            int v = symbolAt(romanVal, symbols, i);
+            if (i < len - 1) {
+                int next = symbolAt(romanVal, symbols, i + 1);
+                if ((v == 100 || v == 10 || v == 1) && (next == v * 5 || next == v * 10)) {
+                    calResult = calResult + next - v;
                     i++;
-                } else {
-
-                    calResult += getIntVal(chars[i]);
+                    continue;
                 }
-            } else {
-                calResult += getIntVal(chars[i]);
             }
+            calResult += v;
         }
+        return calResult;
+    }
 
-        return String.valueOf(calResult);
+    /**
+     * Helper method to 'calculate' the Arabic value and returns as String
+     */
+    protected static String calResultString(String romanVal) {
+        return String.valueOf(sumRoman(romanVal));
     }
 
     static int getIntVal(char c) {
-        return valueTable.get(String.valueOf(c)).intValue();
+        return (c < ROMAN_VALUES.length) ? ROMAN_VALUES[c] : 0;
     }
     
 
@@ -371,6 +1122,7 @@ public class Galactic {
         }
 
         rt.processFile();
+        rt.getOutput().close();
     }
 
 }
@@ -0,0 +1,137 @@
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+
+
+/**
+ * GalacticBench
+ *
+ * Inputs of the Galactic JMH benchmarks in bench/ (see bench/pom.xml): the
+ * sample lines and numerals, generated transaction files, and the hot paths
+ * as they were before classifyLine(), decodeRoman() and appendCredits(), to
+ * measure those against.
+ */
+public class GalacticBench {
+
+    static final String[] SAMPLE_LINES = {
+        "glob is I",
+        "prok is V",
+        "pish is X",
+        "tegj is L",
+        "glob glob Silver is 34 Credits",
+        "glob prok Gold is 57800 Credits",
+        "pish pish Iron is 3910 Credits",
+        "how much is pish tegj glob glob ?",
+        "how many Credits is glob prok Silver ?",
+        "how many Credits is glob prok Gold ?",
+        "how many Credits is glob prok Iron ?",
+        "how much wood could a woodchuck chuck if a woodchuck could chuck wood ?"
+    };
+
+    static final String[] SAMPLE_NUMERALS = {
+        "XLII", "IV", "MCMXCIV", "MMMCMXCIX", "XX", "LXXVIII", "CDXLIV", "IX"
+    };
+
+    /**
+     * Line classification as it was before classifyLine(): up to four
+     * String.matches()
+     */
+    static int legacyClassifyLine(String line) {
+        if (line.matches(Galactic.SPECIFICATION_UNIT_MAPPING_PATTERN)) {
+            return Galactic.LINE_UNIT_MAPPING;
+        } else if (line.matches(Galactic.SPECIFICATION_CREDITS_SAMPLE_PATTERN)) {
+            return Galactic.LINE_CREDITS_SAMPLE;
+        } else if (line.matches(Galactic.QUESTION_UNIT_VALUE_PATTERN)) {
+            return Galactic.LINE_UNIT_VALUE;
+        } else if (line.matches(Galactic.QUESTION_TOTAL_CREDITS_PATTERN)) {
+            return Galactic.LINE_TOTAL_CREDITS;
+        }
+        return Galactic.LINE_UNKNOWN;
+    }
+
+    /**
+     * The symbol values of a numeral, as decodeRoman() takes them
+     */
+    static int[] romanSymbols(String romanVal) {
+        int[] symbols = new int[romanVal.length()];
+        for (int i=0; i<symbols.length; i++) {
+            symbols[i] = Galactic.ROMAN_VALUES[romanVal.charAt(i)];
+        }
+        return symbols;
+    }
+
+    /**
+     * Roman decoding as it was before decodeRoman(): uppercase, regex check,
+     * then the HashMap backed sum rendered to a String and parsed back
+     */
+    static int legacyDecodeRoman(String romanVal) {
+        romanVal = romanVal.toUpperCase();
+        if (!romanVal.matches(Galactic.ROMAN_NUMERAL_PATTERN)) {
+            return -1;
+        }
+        char[] chars = romanVal.toCharArray();
+        int calResult = 0;
+        for (int i=0; i<chars.length; i++) {
+            int v = Galactic.valueTable.get(String.valueOf(chars[i])).intValue();
+            if (i < chars.length - 1) {
+                int next = Galactic.valueTable.get(String.valueOf(chars[i+1])).intValue();
+                if ((v == 100 || v == 10 || v == 1) && (next == v * 5 || next == v * 10)) {
+                    calResult = calResult + next - v;
+                    i++;
+                    continue;
+                }
+            }
+            calResult += v;
+        }
+        return Integer.parseInt(String.valueOf(calResult));
+    }
+
+    /**
+     * Total credits as before the exact pricing: float price per unit, float
+     * total, String.format("%.0f")
+     */
+    static String legacyCredits(long numUnits, long credits, int units) {
+        float perUnitCost = Float.parseFloat(String.valueOf(credits)) / units;
+        Float price = Float.valueOf(perUnitCost);
+        float totalCredits = numUnits * price.floatValue();
+        return String.format("%.0f", Float.valueOf(totalCredits));
+    }
+
+    /**
+     * Writes a transaction file of the given number of lines: the sample
+     * specifications once, followed by the sample questions over and over
+     */
+    static File writeTransactionFile(int lines) throws IOException {
+
+        File f = File.createTempFile("galactic", ".txt");
+        f.deleteOnExit();
+
+        BufferedWriter out = new BufferedWriter(new FileWriter(f));
+        try {
+            int specs = 7;
+            for (int i=0; i<lines; i++) {
+                if (i < specs) {
+                    out.write(SAMPLE_LINES[i]);
+                } else {
+                    out.write(SAMPLE_LINES[specs + (i % (SAMPLE_LINES.length - specs))]);
+                }
+                out.newLine();
+            }
+        } finally {
+            out.close();
+        }
+        return f;
+    }
+
+    /**
+     * Runs processFile() over a transaction file (-Dworkers applies)
+     */
+    static void processFile(File f, boolean mapped) {
+        Galactic rt = new Galactic();
+        rt.setFilename(f.getPath());
+        rt.setMapped(mapped);
+        rt.processFile();
+    }
+
+}
@@ -0,0 +1,152 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.Arrays;
+
+
+/**
+ * GalacticLoadClient
+ *
+ * Load test for GalacticServer: opens a number of connections, each sending
+ * one question at a time and waiting for its answer, and reports the request
+ * latency percentiles over all of them.
+ *
+ * Usage:
+ *
+ *     java -cp . GalacticLoadClient [-port n] [-clients n] [-requests n]
+ *
+ * The server is expected to have been started with the sample
+ * specifications (glob/prok/pish/tegj, Silver/Gold/Iron).
+ */
+public class GalacticLoadClient {
+
+    static final String[] QUESTIONS = {
+        "how much is pish tegj glob glob ?",
+        "how many Credits is glob prok Silver ?",
+        "how many Credits is glob prok Gold ?",
+        "how many Credits is glob prok Iron ?"
+    };
+
+    static final int DEFAULT_CLIENTS = 16;
+    static final int DEFAULT_REQUESTS = 10000;
+
+    int port = GalacticServer.DEFAULT_PORT;
+    int clients = DEFAULT_CLIENTS;
+    int requests = DEFAULT_REQUESTS;
+
+
+    /**
+     * Runs the requests of one connection, recording each latency in ns
+     * into latencies[offset..offset+requests) and the number of requests
+     * answered so far into completed[client]
+     */
+    void runClient(long[] latencies, int offset, int[] completed, int client) throws IOException {
+
+        Socket socket = new Socket(InetAddress.getLoopbackAddress(), port);
+        try {
+            socket.setTcpNoDelay(true);
+            OutputStream out = socket.getOutputStream();
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+
+            byte[][] questions = new byte[QUESTIONS.length][];
+            for (int q=0; q<QUESTIONS.length; q++) {
+                questions[q] = (QUESTIONS[q] + "\n").getBytes();
+            }
+
+            for (int i=0; i<requests; i++) {
+                long start = System.nanoTime();
+                out.write(questions[(offset + i) % questions.length]);
+                out.flush();
+                if (null == in.readLine()) {
+                    throw new IOException("Server closed the connection");
+                }
+                latencies[offset + i] = System.nanoTime() - start;
+                completed[client] = i + 1;
+            }
+        } finally {
+            socket.close();
+        }
+    }
+
+    void run() throws InterruptedException {
+
+        final long[] latencies = new long[clients * requests];
+        final int[] completed = new int[clients];
+        final int[] failures = new int[1];
+
+        Thread[] threads = new Thread[clients];
+        for (int c=0; c<clients; c++) {
+            final int client = c;
+            final int offset = c * requests;
+            threads[c] = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        runClient(latencies, offset, completed, client);
+                    } catch (IOException ie) {
+                        synchronized (failures) {
+                            failures[0]++;
+                        }
+                        System.err.println("ERROR: client failed - " + ie.getMessage());
+                    }
+                }
+            });
+        }
+
+        long start = System.nanoTime();
+        for (int c=0; c<clients; c++) {
+            threads[c].start();
+        }
+        for (int c=0; c<clients; c++) {
+            threads[c].join();
+        }
+        long elapsed = System.nanoTime() - start;
+
+        // only the requests that were answered - a failed client's
+        // remaining slots were never measured
+        int answered = 0;
+        for (int c=0; c<clients; c++) {
+            answered += completed[c];
+        }
+        long[] measured = new long[answered];
+        int n = 0;
+        for (int c=0; c<clients; c++) {
+            System.arraycopy(latencies, c * requests, measured, n, completed[c]);
+            n += completed[c];
+        }
+
+        Arrays.sort(measured);
+        System.out.println(String.format("%d clients x %d requests, %d failed clients, %d requests answered", clients, requests, failures[0], answered));
+        System.out.println(String.format("throughput %12.0f requests/s", answered * 1e9 / elapsed));
+        if (answered == 0) {
+            return;
+        }
+        System.out.println(String.format("p50 %10.1f us", percentile(measured, 50) / 1e3));
+        System.out.println(String.format("p99 %10.1f us", percentile(measured, 99) / 1e3));
+        System.out.println(String.format("max %10.1f us", measured[measured.length - 1] / 1e3));
+    }
+
+    static long percentile(long[] sorted, int p) {
+        int index = (int) Math.ceil(p / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+    }
+
+
+    public static void main(String argv[]) throws InterruptedException {
+
+        GalacticLoadClient client = new GalacticLoadClient();
+        for (int i=0; i+1<argv.length; i+=2) {
+            if ("-port".equals(argv[i])) {
+                client.port = Integer.parseInt(argv[i+1]);
+            } else if ("-clients".equals(argv[i])) {
+                client.clients = Integer.parseInt(argv[i+1]);
+            } else if ("-requests".equals(argv[i])) {
+                client.requests = Integer.parseInt(argv[i+1]);
+            }
+        }
+        client.run();
+    }
+
+}
@@ -0,0 +1,197 @@
+import java.lang.management.ManagementFactory;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.logging.Logger;
+import javax.management.ObjectName;
+
+
+/**
+ * GalacticMetrics
+ *
+ * Process wide counters and latency histograms of the Galactic hot path:
+ * one per line type handled by processLine(), plus line classification,
+ * question plan compilation, Roman numeral decoding and answer output.
+ *
+ * Each histogram has one bucket per power of two of nanoseconds, held in
+ * an AtomicLongArray, so recording is two lock-free increments and never
+ * allocates.  Metrics are off unless -Dmetrics is given; callers check
+ * enabled before even reading the clock, so the disabled cost is one branch
+ * on a final field.
+ *
+ *     -Dmetrics        record, log a summary after each processFile()
+ *     -Dmetrics=n      also log a summary every n seconds
+ *
+ * The same figures are published over JMX as Galactic:type=Metrics.
+ */
+public class GalacticMetrics implements GalacticMetricsMBean {
+
+    private final static Logger _log = Logger.getLogger(GalacticMetrics.class.getName());
+
+    public static final int UNIT_MAPPING = 0;
+    public static final int CREDITS_SAMPLE = 1;
+    public static final int UNIT_VALUE = 2;
+    public static final int TOTAL_CREDITS = 3;
+    public static final int UNRECOGNIZED = 4;
+    public static final int CLASSIFY = 5;
+    public static final int ROMAN_DECODE = 6;
+    public static final int OUTPUT = 7;
+    public static final int PLAN_COMPILE = 8;
+
+    static final String[] NAMES = {
+        "unit mapping", "credits sample", "unit value", "total credits", "unrecognized",
+        "classify", "roman decode", "output", "plan compile"
+    };
+
+    static final int BUCKETS = 64;
+
+    final boolean enabled;
+    final AtomicLongArray counts = new AtomicLongArray(NAMES.length);
+    final AtomicLongArray totals = new AtomicLongArray(NAMES.length);
+    final AtomicLongArray buckets = new AtomicLongArray(NAMES.length * BUCKETS);
+
+
+    GalacticMetrics(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * The metrics as configured by -Dmetrics; when enabled they are also
+     * registered with the platform MBean server and, given a period, dumped
+     * to the log by a daemon timer
+     */
+    static GalacticMetrics create() {
+
+        String property = System.getProperty("metrics");
+        final GalacticMetrics metrics = new GalacticMetrics(null != property);
+        if (!metrics.enabled) {
+            return metrics;
+        }
+
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, new ObjectName("Galactic:type=Metrics"));
+        } catch (Exception e) {
+            _log.warning("Unable to register the Galactic metrics MBean - " + e.getMessage());
+        }
+
+        int seconds = 0;
+        try {
+            seconds = (property.length() > 0) ? Integer.parseInt(property) : 0;
+        } catch (NumberFormatException nfe) {
+            _log.warning("Ignoring invalid -Dmetrics period (" + property + ")");
+        }
+        if (seconds > 0) {
+            Timer timer = new Timer("GalacticMetrics", true);
+            timer.schedule(new TimerTask() {
+                public void run() {
+                    metrics.logSummary();
+                }
+            }, seconds * 1000L, seconds * 1000L);
+        }
+        return metrics;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Records one event of the metric that took the given nanoseconds
+     */
+    public void record(int metric, long nanos) {
+        counts.incrementAndGet(metric);
+        totals.addAndGet(metric, nanos);
+        buckets.incrementAndGet(metric * BUCKETS + bucket(nanos));
+    }
+
+    /**
+     * Bucket b holds the times below 2^b ns (bucket 0: 0 ns)
+     */
+    static int bucket(long nanos) {
+        return (nanos <= 0) ? 0 : Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(nanos));
+    }
+
+    /**
+     * Upper bound of the bucket holding the p-th percentile
+     */
+    long percentile(int metric, int p) {
+
+        long count = counts.get(metric);
+        if (count == 0) {
+            return 0;
+        }
+        long rank = (count * p + 99) / 100;
+        long seen = 0;
+        for (int b=0; b<BUCKETS; b++) {
+            seen += buckets.get(metric * BUCKETS + b);
+            if (seen >= rank) {
+                return (b == 0) ? 0 : (1L << b) - 1;
+            }
+        }
+        return Long.MAX_VALUE;
+    }
+
+    public String[] getMetricNames() {
+        return NAMES.clone();
+    }
+
+    public long[] getCounts() {
+        long[] values = new long[NAMES.length];
+        for (int m=0; m<values.length; m++) {
+            values[m] = counts.get(m);
+        }
+        return values;
+    }
+
+    public long[] getTotalNanos() {
+        long[] values = new long[NAMES.length];
+        for (int m=0; m<values.length; m++) {
+            values[m] = totals.get(m);
+        }
+        return values;
+    }
+
+    public long[] getP50Nanos() {
+        long[] values = new long[NAMES.length];
+        for (int m=0; m<values.length; m++) {
+            values[m] = percentile(m, 50);
+        }
+        return values;
+    }
+
+    public long[] getP99Nanos() {
+        long[] values = new long[NAMES.length];
+        for (int m=0; m<values.length; m++) {
+            values[m] = percentile(m, 99);
+        }
+        return values;
+    }
+
+    public String getSummary() {
+
+        StringBuilder sb = new StringBuilder();
+        sb.append("***** Galactic metrics *****\n");
+        sb.append(String.format("%-16s %12s %12s %12s %12s%n", "", "count", "avg ns", "p50 ns <=", "p99 ns <="));
+        for (int m=0; m<NAMES.length; m++) {
+            long count = counts.get(m);
+            sb.append(String.format("%-16s %12d %12d %12d %12d%n", NAMES[m], count,
+                                    (count == 0) ? 0 : totals.get(m) / count, percentile(m, 50), percentile(m, 99)));
+        }
+        return sb.toString();
+    }
+
+    public void logSummary() {
+        _log.info(getSummary());
+    }
+
+    public void reset() {
+        for (int m=0; m<NAMES.length; m++) {
+            counts.set(m, 0);
+            totals.set(m, 0);
+        }
+        for (int b=0; b<buckets.length(); b++) {
+            buckets.set(b, 0);
+        }
+    }
+
+}
@@ -0,0 +1,25 @@
+/**
+ * GalacticMetricsMBean
+ *
+ * JMX view of GalacticMetrics (object name Galactic:type=Metrics).  The
+ * arrays are indexed like getMetricNames().
+ */
+public interface GalacticMetricsMBean {
+
+    boolean isEnabled();
+
+    String[] getMetricNames();
+
+    long[] getCounts();
+
+    long[] getTotalNanos();
+
+    long[] getP50Nanos();
+
+    long[] getP99Nanos();
+
+    String getSummary();
+
+    void reset();
+
+}
@@ -0,0 +1,267 @@
+import java.math.BigInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+
+/**
+ * GalacticQueryPlan
+ *
+ * The structure of a question line compiled, once, into what answering it
+ * takes: where the unit tokens of each of its terms start and end and where
+ * its metals are.  The unit and metal names themselves are parameters of
+ * the plan, bound from the question's tokens by answer().
+ *
+ * Questions may have any number of unit tokens, and a credits question any
+ * number of terms, each being units followed by a metal:
+ *
+ *     how much is pish tegj glob glob ?
+ *     how many Credits is glob prok Silver ?
+ *     how many Credits is glob glob Silver pish Gold ?
+ *
+ * The answer to a question of several terms is the exact sum of their
+ * totals, rounded half up once (glob glob Silver pish Gold is 68 Credits).
+ *
+ * A plan is compiled from the question's shape() - its line type and the
+ * kind of each token, unit, metal or other - and from nothing else, so
+ * every question of that shape runs the same plan: "how many Credits is
+ * glob prok Silver ?" and "how many Credits is pish pish Iron ?" are both
+ * "C uuM".  A plan holds no names and no values, so it stays valid whatever
+ * units and metals are defined after it was compiled; answer() runs it
+ * against the current GalacticTables snapshot.  Galactic keeps the plans in
+ * a PlanCache keyed by shape.
+ */
+final class GalacticQueryPlan {
+
+    /** Shape of every line that is not a question of a known line type */
+    static final String UNKNOWN_SHAPE = "?";
+
+    final String shape;
+    final int lineType;
+
+    /** Term t: units tokens[unitStart[t] .. unitEnd[t]), then, in a credits question, its metal at tokens[unitEnd[t]] */
+    final int[] unitStart;
+    final int[] unitEnd;
+
+
+    private GalacticQueryPlan(String shape, int lineType, int[] unitStart, int[] unitEnd) {
+        this.shape = shape;
+        this.lineType = lineType;
+        this.unitStart = unitStart;
+        this.unitEnd = unitEnd;
+    }
+
+    /**
+     * The plan answering UNKNOWN_ANSWER, for a question no pattern matched
+     */
+    private GalacticQueryPlan(String shape) {
+        this(shape, Galactic.LINE_UNKNOWN, null, null);
+    }
+
+    /**
+     * The shape of a trimmed question line, tokenized, of the type picked by
+     * classifyLine(): 'V' or 'C' for the line type, then a space and 'u',
+     * 'M' or 'x' for each token between the leading words and the "?"
+     */
+    static String shape(int lineType, String[] tokens) {
+
+        int first;
+        char type;
+        switch (lineType) {
+        case Galactic.LINE_UNIT_VALUE:
+            // how much is <Unit> ... ?
+            first = 3;
+            type = 'V';
+            break;
+        case Galactic.LINE_TOTAL_CREDITS:
+            // how many Credits is <Unit> ... <Metal> [<Unit> ... <Metal>] ... ?
+            first = 4;
+            type = 'C';
+            break;
+        default:
+            return UNKNOWN_SHAPE;
+        }
+
+        StringBuilder sb = new StringBuilder(tokens.length - first + 2);
+        sb.append(type).append(' ');
+        for (int i=first; i<tokens.length-1; i++) {
+            String token = tokens[i];
+            sb.append(isMetal(token) ? 'M' : isUnit(token) ? 'u' : 'x');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Compiles a question shape
+     */
+    static GalacticQueryPlan compile(String shape) {
+
+        if (shape.length() < 2) {
+            return new GalacticQueryPlan(shape);
+        }
+
+        switch (shape.charAt(0)) {
+        case 'V':
+            // the line pattern has already checked the unit tokens
+            return new GalacticQueryPlan(shape, Galactic.LINE_UNIT_VALUE, new int[] { 3 }, new int[] { 3 + shape.length() - 2 });
+
+        case 'C':
+            // the line pattern only checks for letters, the terms are
+            // checked here, one token at a time
+            int terms = 0;
+            for (int k=2; k<shape.length(); k++) {
+                if (shape.charAt(k) == 'M') {
+                    terms++;
+                }
+            }
+            int[] unitStart = new int[terms];
+            int[] unitEnd = new int[terms];
+            // token i is shape character i - 2
+            int start = 4;
+            int t = 0;
+            for (int k=2; k<shape.length(); k++) {
+                int i = k + 2;
+                char kind = shape.charAt(k);
+                if (kind == 'x') {
+                    return new GalacticQueryPlan(shape);
+                }
+                if (kind == 'M') {
+                    if (i == start) {
+                        // a metal without units
+                        return new GalacticQueryPlan(shape);
+                    }
+                    unitStart[t] = start;
+                    unitEnd[t++] = i;
+                    start = i + 1;
+                }
+            }
+            if (terms == 0 || start != shape.length() + 2) {
+                return new GalacticQueryPlan(shape);
+            }
+            return new GalacticQueryPlan(shape, Galactic.LINE_TOTAL_CREDITS, unitStart, unitEnd);
+
+        default:
+            return new GalacticQueryPlan(shape);
+        }
+    }
+
+    /**
+     * Unit names are lower case words
+     */
+    static boolean isUnit(String token) {
+        for (int i=0; i<token.length(); i++) {
+            char c = token.charAt(i);
+            if (c < 'a' || c > 'z') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Metal names are capitalized words, unit names are not
+     */
+    static boolean isMetal(String token) {
+        char c = token.charAt(0);
+        return c >= 'A' && c <= 'Z';
+    }
+
+    /**
+     * Runs the plan against the given snapshot, binding the unit and metal
+     * names from the tokens of a question of the plan's shape
+     */
+    String answer(Galactic galactic, GalacticTables t, String[] tokens) {
+
+        switch (lineType) {
+        case Galactic.LINE_UNIT_VALUE:
+            String units = Galactic.unitPhrase(tokens, unitStart[0], unitEnd[0]);
+            return units + "is " + galactic.resolveUnitValue(t, units, tokens, unitStart[0], unitEnd[0]);
+        case Galactic.LINE_TOTAL_CREDITS:
+            return totalCredits(galactic, t, tokens);
+        default:
+            return Galactic.UNKNOWN_ANSWER;
+        }
+    }
+
+    private String totalCredits(Galactic galactic, GalacticTables t, String[] tokens) {
+
+        // every metal needs a price before any units are resolved
+        int terms = unitEnd.length;
+        int[] slots = new int[terms];
+        for (int i=0; i<terms; i++) {
+            slots[i] = t.findMetal(tokens[unitEnd[i]]);
+            if (slots[i] < 0) {
+                return Galactic.UNKNOWN_ANSWER;
+            }
+        }
+
+        // the answer up to the number, e.g. "glob prok Silver is "
+        String[] unitPhrases = new String[terms];
+        StringBuilder sb = new StringBuilder(64);
+        for (int i=0; i<terms; i++) {
+            unitPhrases[i] = Galactic.unitPhrase(tokens, unitStart[i], unitEnd[i]);
+            sb.append(unitPhrases[i]).append(tokens[unitEnd[i]]).append(' ');
+        }
+        sb.append("is ");
+
+        if (terms == 1) {
+            int numUnits = galactic.resolveUnitValue(t, unitPhrases[0], tokens, unitStart[0], unitEnd[0]);
+            Galactic.appendCredits(sb, numUnits, t.metalCredits[slots[0]], t.metalUnits[slots[0]]);
+        } else {
+            // sum of numUnits * credits / units over the terms, as one fraction
+            BigInteger numerator = BigInteger.ZERO;
+            BigInteger denominator = BigInteger.ONE;
+            for (int i=0; i<terms; i++) {
+                int numUnits = galactic.resolveUnitValue(t, unitPhrases[i], tokens, unitStart[i], unitEnd[i]);
+                BigInteger units = BigInteger.valueOf(t.metalUnits[slots[i]]);
+                BigInteger credits = BigInteger.valueOf(numUnits).multiply(BigInteger.valueOf(t.metalCredits[slots[i]]));
+                numerator = numerator.multiply(units).add(credits.multiply(denominator));
+                denominator = denominator.multiply(units);
+            }
+            sb.append(numerator.shiftLeft(1).add(denominator).divide(denominator.shiftLeft(1)));
+        }
+        return sb.append(" Credits").toString();
+    }
+
+
+    /**
+     * PlanCache: direct mapped cache of question shape to compiled plan, the
+     * same scheme as GalacticTables.UnitValueCache.  Plans do not depend on
+     * the tables, so the cache is never cleared.
+     */
+    static final class PlanCache {
+
+        final AtomicReferenceArray<GalacticQueryPlan> slots;
+        final int mask;
+
+        PlanCache(int maxEntries) {
+            int size = 1;
+            while (size < maxEntries) {
+                size <<= 1;
+            }
+            this.slots = new AtomicReferenceArray<GalacticQueryPlan>(size);
+            this.mask = size - 1;
+        }
+
+        /**
+         * The plan of the shape, or null on a miss
+         */
+        GalacticQueryPlan get(String shape) {
+            GalacticQueryPlan plan = slots.get(GalacticTables.UnitValueCache.spread(shape.hashCode()) & mask);
+            return (null != plan && plan.shape.equals(shape)) ? plan : null;
+        }
+
+        void put(GalacticQueryPlan plan) {
+            slots.lazySet(GalacticTables.UnitValueCache.spread(plan.shape.hashCode()) & mask, plan);
+        }
+
+        int size() {
+            int n = 0;
+            for (int i=0; i<slots.length(); i++) {
+                if (null != slots.get(i)) {
+                    n++;
+                }
+            }
+            return n;
+        }
+    }
+
+}
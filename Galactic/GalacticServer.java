@@ -0,0 +1,385 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Logger;
+
+
+/**
+ * GalacticServer
+ *
+ * Keeps one Galactic - and with it the unit and metal price tables - resident
+ * and answers question lines as they arrive, either from stdin or from any
+ * number of clients on a local TCP port.
+ *
+ * The socket mode runs a single NIO selector thread: every connection is
+ * non-blocking, so thousands of clients cost a few buffers each rather than
+ * a thread each.  A client sends '\n' terminated lines and gets one '\n'
+ * terminated answer back per question (or unrecognized) line, in order;
+ * specification lines update the resident tables and are not answered.
+ *
+ * The selector thread only moves bytes: the lines it reads are queued on
+ * their connection and answered by a pool of worker threads, one worker
+ * at a time per connection so its answers keep their order, and a client
+ * sending a long run of questions does not hold up the others.  A client
+ * that does not read its answers is not read from either once
+ * OUTPUT_HIGH_WATER bytes of answers, or MAX_QUEUED_LINES lines, are
+ * waiting for it.
+ *
+ * Usage:
+ *
+ *     java -cp . GalacticServer [-stdin] [-port n] [-workers n] [specification file]
+ *
+ * The specification file (default: default_test_input.txt) is processed
+ * once at startup, exactly as Galactic would.
+ */
+public class GalacticServer {
+
+    private final static Logger _log = Logger.getLogger(GalacticServer.class.getName());
+
+    public static final int DEFAULT_PORT = 7777;
+
+    /** Longest line a client may send */
+    static final int LINE_BUFFER_SIZE = 8192;
+
+    static final int ANSWER_BUFFER_SIZE = 8192;
+
+    /** Unsent answer bytes above which a client's lines are not read */
+    static final int OUTPUT_HIGH_WATER = 64 * 1024;
+
+    /** Unanswered lines above which a client's lines are not read */
+    static final int MAX_QUEUED_LINES = 4096;
+
+    static final Charset LATIN_1 = Charset.forName("ISO-8859-1");
+
+    Galactic galactic;
+    int port;
+    int workers = Runtime.getRuntime().availableProcessors();
+
+    Selector selector;
+    ExecutorService pool;
+    /** Connections whose answers the workers have added to, or that failed */
+    final Queue<SelectionKey> answered = new ConcurrentLinkedQueue<SelectionKey>();
+
+
+    public GalacticServer(Galactic galactic, int port) {
+        this.galactic = galactic;
+        this.port = port;
+    }
+
+    /**
+     * Worker threads answering the clients' lines
+     */
+    public void setWorkers(int workers) {
+        this.workers = Math.max(1, workers);
+    }
+
+    /**
+     * Answers the lines read from stdin until it is closed, flushing each
+     * answer as soon as it is written
+     */
+    public void serveStdin() throws IOException {
+
+        BufferedReader inbuf = new BufferedReader(new InputStreamReader(System.in));
+        AnswerSink out = galactic.getOutput();
+        String theLine = null;
+        while (null != (theLine = inbuf.readLine())) {
+            String answer = galactic.answer(theLine);
+            if (null != answer) {
+                out.println(answer);
+                out.flush();
+            }
+        }
+    }
+
+    /**
+     * Accepts and serves clients on the loopback port until the process is
+     * stopped
+     */
+    public void serve() throws IOException {
+
+        selector = Selector.open();
+        pool = Executors.newFixedThreadPool(workers, new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "GalacticServer worker");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        ServerSocketChannel server = ServerSocketChannel.open();
+        try {
+            server.socket().setReuseAddress(true);
+            server.socket().bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 1024);
+            server.configureBlocking(false);
+            server.register(selector, SelectionKey.OP_ACCEPT);
+            _log.info("GalacticServer listening on port " + port);
+
+            while (true) {
+                selector.select();
+                SelectionKey ready;
+                while (null != (ready = answered.poll())) {
+                    try {
+                        if (!ready.isValid()) {
+                            continue;
+                        }
+                        if (((Connection) ready.attachment()).failed) {
+                            close(ready);
+                        } else {
+                            write(ready);
+                        }
+                    } catch (IOException ie) {
+                        close(ready);
+                    }
+                }
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    try {
+                        if (!key.isValid()) {
+                            continue;
+                        }
+                        if (key.isAcceptable()) {
+                            accept(selector, server);
+                        } else {
+                            if (key.isReadable()) {
+                                read(key);
+                            }
+                            if (key.isValid() && key.isWritable()) {
+                                write(key);
+                            }
+                        }
+                    } catch (IOException ie) {
+                        close(key);
+                    }
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+            server.close();
+            selector.close();
+        }
+    }
+
+    void accept(Selector selector, ServerSocketChannel server) throws IOException {
+        SocketChannel client = server.accept();
+        if (null != client) {
+            client.configureBlocking(false);
+            client.socket().setTcpNoDelay(true);
+            client.register(selector, SelectionKey.OP_READ, new Connection());
+        }
+    }
+
+    /**
+     * Queues every complete line received so far for the workers
+     */
+    void read(SelectionKey key) throws IOException {
+
+        SocketChannel client = (SocketChannel) key.channel();
+        Connection conn = (Connection) key.attachment();
+
+        if (client.read(conn.in) < 0) {
+            close(key);
+            return;
+        }
+
+        ByteBuffer in = conn.in;
+        int limit = in.position();
+        int start = 0;
+        for (int i=0; i<limit; i++) {
+            if (in.get(i) == '\n') {
+                String line = new String(in.array(), start, i - start, LATIN_1);
+                synchronized (conn) {
+                    conn.lines.add(line);
+                }
+                start = i + 1;
+            }
+        }
+        if (start > 0) {
+            answer(key, conn);
+        }
+
+        if (start == 0 && limit == in.capacity()) {
+            _log.warning("Closing client sending a line longer than " + LINE_BUFFER_SIZE + " bytes");
+            close(key);
+            return;
+        }
+
+        // keep the partial line for the next read
+        in.limit(limit);
+        in.position(start);
+        in.compact();
+
+        write(key);
+    }
+
+    /**
+     * Hands the connection's queued lines to a worker, unless one is at
+     * them already
+     */
+    void answer(final SelectionKey key, final Connection conn) {
+
+        synchronized (conn) {
+            if (conn.answering || conn.lines.isEmpty()) {
+                return;
+            }
+            conn.answering = true;
+        }
+        pool.execute(new Runnable() {
+            public void run() {
+                boolean done = false;
+                try {
+                    while (true) {
+                        String line;
+                        synchronized (conn) {
+                            line = conn.lines.poll();
+                            if (null == line) {
+                                conn.answering = false;
+                                break;
+                            }
+                        }
+                        String answer = galactic.answer(line);
+                        if (null != answer) {
+                            synchronized (conn) {
+                                conn.append(answer);
+                            }
+                        }
+                    }
+                    done = true;
+                } finally {
+                    // a failure closes this client only; the selector thread
+                    // sends the answers, or closes it
+                    if (!done) {
+                        conn.failed = true;
+                        _log.warning("Closing client after a failure to answer it");
+                    }
+                    answered.add(key);
+                    selector.wakeup();
+                }
+            }
+        });
+    }
+
+    void write(SelectionKey key) throws IOException {
+
+        SocketChannel client = (SocketChannel) key.channel();
+        Connection conn = (Connection) key.attachment();
+
+        int pending;
+        int queued;
+        synchronized (conn) {
+            conn.out.flip();
+            client.write(conn.out);
+            pending = conn.out.remaining();
+            conn.out.compact();
+            queued = conn.lines.size();
+        }
+
+        // backpressure: stop reading while too many answers are unsent, or
+        // too many lines unanswered
+        int ops = (pending > 0) ? SelectionKey.OP_WRITE : 0;
+        if (pending < OUTPUT_HIGH_WATER && queued < MAX_QUEUED_LINES) {
+            ops |= SelectionKey.OP_READ;
+        }
+        key.interestOps(ops);
+    }
+
+    void close(SelectionKey key) {
+        key.cancel();
+        try {
+            key.channel().close();
+        } catch (IOException ie) {
+            _log.warning("Client close failed - " + ie.getMessage());
+        }
+    }
+
+
+    /**
+     * Connection: the buffers of one client.  in belongs to the selector
+     * thread; lines, out and answering are shared with the workers and
+     * guarded by the connection.
+     */
+    static class Connection {
+
+        final ByteBuffer in = ByteBuffer.allocate(LINE_BUFFER_SIZE);
+        ByteBuffer out = ByteBuffer.allocate(ANSWER_BUFFER_SIZE);
+        final Queue<String> lines = new ArrayDeque<String>();
+        boolean answering = false;
+        volatile boolean failed = false;
+
+        /**
+         * Queues the answer and its '\n', growing the answer buffer for a
+         * client that is not keeping up - by at most the answers to the
+         * lines queued when reading stopped
+         */
+        void append(String answer) {
+
+            byte[] bytes = answer.getBytes();
+            if (out.remaining() < bytes.length + 1) {
+                ByteBuffer bigger = ByteBuffer.allocate(Math.max(out.capacity() * 2, out.position() + bytes.length + 1));
+                out.flip();
+                bigger.put(out);
+                out = bigger;
+            }
+            out.put(bytes);
+            out.put((byte) '\n');
+        }
+    }
+
+
+    public static void main(String argv[]) throws IOException {
+
+        boolean stdin = false;
+        int port = DEFAULT_PORT;
+        int workers = Runtime.getRuntime().availableProcessors();
+        String specFile = Galactic.DEFAULT_INPUT_FILE;
+
+        for (int i=0; i<argv.length; i++) {
+            if ("-stdin".equals(argv[i])) {
+                stdin = true;
+            } else if ("-port".equals(argv[i]) && i + 1 < argv.length) {
+                port = Integer.parseInt(argv[++i]);
+            } else if ("-workers".equals(argv[i]) && i + 1 < argv.length) {
+                workers = Integer.parseInt(argv[++i]);
+            } else if ("-h".equals(argv[i]) || "-help".equals(argv[i])) {
+                _log.info("***** Usage *****\nGalacticServer [-stdin] [-port n] [-workers n] [Specification file (Default: default_test_input.txt)]\n");
+                System.exit(0);
+            } else {
+                specFile = argv[i];
+            }
+        }
+
+        Galactic rt = new Galactic();
+        if (new File(specFile).isFile()) {
+            rt.setFilename(specFile);
+            rt.processFile();
+        } else {
+            _log.warning("No specification file (" + specFile + "), starting with empty tables");
+        }
+
+        GalacticServer server = new GalacticServer(rt, port);
+        server.setWorkers(workers);
+        if (stdin) {
+            server.serveStdin();
+        } else {
+            server.serve();
+        }
+    }
+
+}
@@ -0,0 +1,244 @@
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+
+/**
+ * GalacticTables
+ *
+ * One immutable snapshot of the Galactic lookup state: the Roman symbol
+ * value (1, 5, 10, ...) of every unit, the per-unit price of every metal, and
+ * the cache of resolved unit phrases that is only valid for these units.
+ *
+ * A metal price is kept exact, as the fraction metalCredits / metalUnits in
+ * lowest terms (e.g. 34 Credits for 2 units is 17/1).
+ *
+ * A specification never modifies a snapshot; withUnit()/withMetalPrice()
+ * copy it, and Galactic swaps the copy in atomically.  Any number of threads
+ * may therefore read a snapshot without locking, while a writer is building
+ * the next one.
+ *
+ * Keys live in small open addressing tables (linear probing) next to
+ * parallel primitive value arrays, so a lookup neither locks nor boxes.
+ */
+final class GalacticTables {
+
+    final String[] unitKeys;
+    final int[] unitValues;
+    final String[] metalKeys;
+    final long[] metalCredits;
+    final int[] metalUnits;
+    final UnitValueCache cache;
+
+
+    GalacticTables(int cacheSize) {
+        this(new String[0], new int[0], new String[0], new long[0], new int[0], new UnitValueCache(cacheSize));
+    }
+
+    private GalacticTables(String[] unitKeys, int[] unitValues, String[] metalKeys, long[] metalCredits, int[] metalUnits, UnitValueCache cache) {
+        this.unitKeys = unitKeys;
+        this.unitValues = unitValues;
+        this.metalKeys = metalKeys;
+        this.metalCredits = metalCredits;
+        this.metalUnits = metalUnits;
+        this.cache = cache;
+    }
+
+    /**
+     * Roman symbol value of the unit, 0 when the unit is not defined
+     */
+    int unitValue(String unit) {
+        int i = find(unitKeys, unit);
+        return (i < 0) ? 0 : unitValues[i];
+    }
+
+    /**
+     * Slot of the metal in metalCredits/metalUnits, -1 when no sample has
+     * been given
+     */
+    int findMetal(String metal) {
+        return find(metalKeys, metal);
+    }
+
+    boolean hasUnit(String unit) {
+        return find(unitKeys, unit) >= 0;
+    }
+
+    /**
+     * A copy with the unit (re)defined - and, since resolved phrases may
+     * change with it, an empty phrase cache - or this snapshot when the unit
+     * already has that value
+     */
+    GalacticTables withUnit(String unit, int value) {
+
+        int i = find(unitKeys, unit);
+        if (i >= 0 && unitValues[i] == value) {
+            return this;
+        }
+
+        String[] keys = new String[tableSize(count(unitKeys) + 1)];
+        int[] values = new int[keys.length];
+        for (int k=0; k<unitKeys.length; k++) {
+            if (null != unitKeys[k]) {
+                int slot = insert(keys, unitKeys[k]);
+                values[slot] = unitValues[k];
+            }
+        }
+        values[insert(keys, unit)] = value;
+
+        return new GalacticTables(keys, values, metalKeys, metalCredits, metalUnits, new UnitValueCache(cache.capacity()));
+    }
+
+    /**
+     * A copy with the metal price (re)defined as credits per units (units >
+     * 0); the phrase cache is shared as prices play no part in it
+     */
+    GalacticTables withMetalPrice(String metal, long credits, int units) {
+
+        long gcd = gcd(credits, units);
+        if (gcd > 1) {
+            credits /= gcd;
+            units = (int) (units / gcd);
+        }
+
+        String[] keys = new String[tableSize(count(metalKeys) + 1)];
+        long[] newCredits = new long[keys.length];
+        int[] newUnits = new int[keys.length];
+        for (int k=0; k<metalKeys.length; k++) {
+            if (null != metalKeys[k]) {
+                int slot = insert(keys, metalKeys[k]);
+                newCredits[slot] = metalCredits[k];
+                newUnits[slot] = metalUnits[k];
+            }
+        }
+        int slot = insert(keys, metal);
+        newCredits[slot] = credits;
+        newUnits[slot] = units;
+
+        return new GalacticTables(unitKeys, unitValues, keys, newCredits, newUnits, cache);
+    }
+
+    static long gcd(long a, long b) {
+        while (b != 0) {
+            long t = a % b;
+            a = b;
+            b = t;
+        }
+        return a;
+    }
+
+    /**
+     * Slot holding the key, -1 when it is not in the table
+     */
+    static int find(String[] keys, String key) {
+
+        if (keys.length == 0) {
+            return -1;
+        }
+        int mask = keys.length - 1;
+        for (int i = key.hashCode() & mask; ; i = (i + 1) & mask) {
+            String k = keys[i];
+            if (null == k) {
+                return -1;
+            }
+            if (k.equals(key)) {
+                return i;
+            }
+        }
+    }
+
+    /**
+     * Slot for the key in a table being built, adding the key if needed
+     */
+    static int insert(String[] keys, String key) {
+        int mask = keys.length - 1;
+        int i = key.hashCode() & mask;
+        while (null != keys[i] && !keys[i].equals(key)) {
+            i = (i + 1) & mask;
+        }
+        keys[i] = key;
+        return i;
+    }
+
+    static int count(String[] keys) {
+        int n = 0;
+        for (int i=0; i<keys.length; i++) {
+            if (null != keys[i]) {
+                n++;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Power of two keeping the table at most half full
+     */
+    static int tableSize(int entries) {
+        int size = 4;
+        while (size < entries * 2) {
+            size <<= 1;
+        }
+        return size;
+    }
+
+
+    /**
+     * UnitValueCache: direct mapped cache of unit phrase (e.g. "pish tegj
+     * glob glob ") to its Arabic value.  A phrase goes into the slot picked by
+     * its hash and replaces whatever was there, so lookups and inserts are
+     * single lock-free array accesses and the size never exceeds capacity().
+     */
+    static final class UnitValueCache {
+
+        final AtomicReferenceArray<Entry> slots;
+        final int mask;
+
+        UnitValueCache(int maxEntries) {
+            int size = 1;
+            while (size < maxEntries) {
+                size <<= 1;
+            }
+            this.slots = new AtomicReferenceArray<Entry>(size);
+            this.mask = size - 1;
+        }
+
+        int capacity() {
+            return slots.length();
+        }
+
+        /**
+         * The cached value of the phrase, or -1 on a miss
+         */
+        int get(String units) {
+            Entry e = slots.get(spread(units.hashCode()) & mask);
+            return (null != e && e.units.equals(units)) ? e.value : -1;
+        }
+
+        void put(String units, int value) {
+            slots.lazySet(spread(units.hashCode()) & mask, new Entry(units, value));
+        }
+
+        int size() {
+            int n = 0;
+            for (int i=0; i<slots.length(); i++) {
+                if (null != slots.get(i)) {
+                    n++;
+                }
+            }
+            return n;
+        }
+
+        static int spread(int h) {
+            return h ^ (h >>> 16);
+        }
+
+        static final class Entry {
+            final String units;
+            final int value;
+
+            Entry(String units, int value) {
+                this.units = units;
+                this.value = value;
+            }
+        }
+    }
+
+}
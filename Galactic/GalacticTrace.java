@@ -0,0 +1,330 @@
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.ConsoleHandler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+
+/**
+ * GalacticTrace
+ *
+ * The trace (FINE/FINEST) side of logging in Galactic: one GalacticTrace
+ * per class, wrapping that class's Logger.
+ *
+ *     private final static GalacticTrace _trace = GalacticTrace.forClass(Galactic.class);
+ *
+ *     _trace.finest("Units: ", units, "- Arabic equivalent value: ", value);
+ *
+ * Which levels are traced is decided once, when the trace is created, and
+ * kept in final fields, so a disabled call returns on its first branch.
+ * The message is passed as fixed text and arguments (long arguments are not
+ * boxed), and is put together only when the level is enabled.
+ *
+ * Configuration, also done once per logger when the trace is created:
+ *
+ *     -Ddebug           trace everything (FINEST) to one ConsoleHandler;
+ *                       otherwise the logger is set to INFO
+ *     -DtraceBuffer=n   hand the traces to a ring buffer of n records,
+ *                       written out by a background thread, so tracing
+ *                       costs the hot path a slot claim instead of message
+ *                       formatting and console output.  When the buffer is
+ *                       full, traces are dropped and counted.
+ *
+ * Without -DtraceBuffer the traces are logged right away, on the calling
+ * thread.
+ */
+final class GalacticTrace {
+
+    private static final ConcurrentMap<String, GalacticTrace> traces = new ConcurrentHashMap<String, GalacticTrace>();
+
+    /** The asynchronous ring buffer, null unless -DtraceBuffer is given */
+    static final Ring ring = Ring.create(Integer.getInteger("traceBuffer", 0).intValue());
+
+    // message shapes
+    static final int TEXT = 0;
+    static final int TEXT_OBJECT = 1;
+    static final int TEXT_LONG = 2;
+    static final int TEXT_OBJECT_TEXT_LONG = 3;
+
+    final Logger logger;
+    final String className;
+    final boolean fine;
+    final boolean finest;
+
+
+    private GalacticTrace(Class<?> c) {
+
+        this.className = c.getName();
+        this.logger = Logger.getLogger(className);
+
+        if (null != System.getProperty("debug")) {
+            // one handler for the logger, rather than the root's as well
+            ConsoleHandler handler = new ConsoleHandler();
+            handler.setLevel(Level.FINEST);
+            logger.setLevel(Level.FINEST);
+            logger.addHandler(handler);
+            logger.setUseParentHandlers(false);
+        } else {
+            logger.setLevel(Level.INFO);
+        }
+
+        this.fine = logger.isLoggable(Level.FINE);
+        this.finest = logger.isLoggable(Level.FINEST);
+    }
+
+    /**
+     * The trace of the class, configuring its logger on the first call
+     */
+    static GalacticTrace forClass(Class<?> c) {
+        GalacticTrace trace = traces.get(c.getName());
+        if (null == trace) {
+            synchronized (traces) {
+                trace = traces.get(c.getName());
+                if (null == trace) {
+                    trace = new GalacticTrace(c);
+                    traces.put(c.getName(), trace);
+                }
+            }
+        }
+        return trace;
+    }
+
+    /**
+     * The class's Logger, for messages above the trace levels
+     */
+    Logger logger() {
+        return logger;
+    }
+
+    boolean isFine() {
+        return fine;
+    }
+
+    boolean isFinest() {
+        return finest;
+    }
+
+    void fine(String text) {
+        if (fine) {
+            trace(Level.FINE, TEXT, text, null, 0, null, 0);
+        }
+    }
+
+    void finest(String text) {
+        if (finest) {
+            trace(Level.FINEST, TEXT, text, null, 0, null, 0);
+        }
+    }
+
+    void finest(String text, Object arg) {
+        if (finest) {
+            trace(Level.FINEST, TEXT_OBJECT, text, arg, 0, null, 0);
+        }
+    }
+
+    void finest(String text, long arg) {
+        if (finest) {
+            trace(Level.FINEST, TEXT_LONG, text, null, arg, null, 0);
+        }
+    }
+
+    void finest(String text, Object arg, String text2, long arg2) {
+        if (finest) {
+            trace(Level.FINEST, TEXT_OBJECT_TEXT_LONG, text, arg, 0, text2, arg2);
+        }
+    }
+
+    private void trace(Level level, int shape, String text, Object arg, long longArg, String text2, long longArg2) {
+
+        if (null != ring) {
+            // a reused buffer (a memory mapped line) may change before the
+            // record is written out
+            if (arg instanceof CharSequence && !(arg instanceof String)) {
+                arg = arg.toString();
+            }
+            ring.offer(this, level, shape, text, arg, longArg, text2, longArg2);
+            return;
+        }
+
+        LogRecord record = new LogRecord(level, message(shape, text, arg, longArg, text2, longArg2));
+        record.setLoggerName(className);
+        StackTraceElement caller = caller();
+        record.setSourceClassName(className);
+        record.setSourceMethodName((null == caller) ? null : caller.getMethodName());
+        logger.log(record);
+    }
+
+    static String message(int shape, String text, Object arg, long longArg, String text2, long longArg2) {
+        switch (shape) {
+        case TEXT_OBJECT:
+            return text + arg;
+        case TEXT_LONG:
+            return text + longArg;
+        case TEXT_OBJECT_TEXT_LONG:
+            return text + arg + text2 + longArg2;
+        default:
+            return text;
+        }
+    }
+
+    /**
+     * The frame that called into this trace (only looked up when tracing
+     * synchronously - Logger would otherwise report this class)
+     */
+    private StackTraceElement caller() {
+        StackTraceElement[] stack = new Throwable().getStackTrace();
+        for (int i=0; i<stack.length; i++) {
+            if (className.equals(stack[i].getClassName())) {
+                return stack[i];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Waits until the ring buffer (if any) has written out every trace
+     * recorded so far
+     */
+    static void flush() {
+        if (null != ring) {
+            ring.flush();
+        }
+    }
+
+
+    /**
+     * Ring: bounded multi producer, single consumer buffer of trace records.
+     *
+     * A producer claims the next sequence number with a CAS, fills the slot
+     * and publishes it by writing the sequence into the slot; the writer
+     * thread takes the slots in sequence order, builds the messages and
+     * logs them.  Slots are allocated up front and reused.
+     */
+    static final class Ring implements Runnable {
+
+        final Slot[] slots;
+        final int mask;
+        final AtomicLong head = new AtomicLong();
+        final AtomicLong dropped = new AtomicLong();
+        volatile long tail = 0;
+        final Thread writer;
+
+        static Ring create(int capacity) {
+            if (capacity <= 0) {
+                return null;
+            }
+            final Ring ring = new Ring(capacity);
+            ring.writer.start();
+            Runtime.getRuntime().addShutdownHook(new Thread("GalacticTrace flush") {
+                public void run() {
+                    ring.flush();
+                }
+            });
+            return ring;
+        }
+
+        private Ring(int capacity) {
+            int size = 1;
+            while (size < capacity) {
+                size <<= 1;
+            }
+            this.slots = new Slot[size];
+            for (int i=0; i<size; i++) {
+                slots[i] = new Slot();
+            }
+            this.mask = size - 1;
+            this.writer = new Thread(this, "GalacticTrace");
+            writer.setDaemon(true);
+        }
+
+        void offer(GalacticTrace trace, Level level, int shape, String text, Object arg, long longArg, String text2, long longArg2) {
+
+            long seq;
+            do {
+                seq = head.get();
+                if (seq - tail >= slots.length) {
+                    dropped.incrementAndGet();
+                    return;
+                }
+            } while (!head.compareAndSet(seq, seq + 1));
+
+            Slot s = slots[(int) seq & mask];
+            s.trace = trace;
+            s.level = level;
+            s.shape = shape;
+            s.text = text;
+            s.arg = arg;
+            s.longArg = longArg;
+            s.text2 = text2;
+            s.longArg2 = longArg2;
+            s.millis = System.currentTimeMillis();
+            s.published = seq;
+        }
+
+        public void run() {
+            while (true) {
+                if (!writeNext()) {
+                    LockSupport.parkNanos(1000000L);
+                }
+            }
+        }
+
+        /**
+         * Writes out the record at the tail, false when it is not published
+         * yet.  The record keeps the time it was traced at, not written out
+         * at - setMillis() is deprecated from JDK 9 but its replacement,
+         * setInstant(), does not exist on the JDK 1.7 Galactic runs on.
+         */
+        @SuppressWarnings("deprecation")
+        boolean writeNext() {
+
+            long t = tail;
+            Slot s = slots[(int) t & mask];
+            if (s.published != t) {
+                return false;
+            }
+
+            GalacticTrace trace = s.trace;
+            LogRecord record = new LogRecord(s.level, message(s.shape, s.text, s.arg, s.longArg, s.text2, s.longArg2));
+            record.setLoggerName(trace.className);
+            record.setSourceClassName(trace.className);
+            record.setMillis(s.millis);
+
+            s.trace = null;
+            s.arg = null;
+            tail = t + 1;
+
+            trace.logger.log(record);
+            return true;
+        }
+
+        void flush() {
+            long end = head.get();
+            while (tail < end) {
+                LockSupport.unpark(writer);
+                LockSupport.parkNanos(1000000L);
+            }
+            long n = dropped.getAndSet(0);
+            if (n > 0) {
+                Logger.getLogger(GalacticTrace.class.getName()).warning(n + " trace records dropped (-DtraceBuffer=" + slots.length + " is full)");
+            }
+        }
+    }
+
+    static final class Slot {
+        volatile long published = -1;
+        GalacticTrace trace;
+        Level level;
+        int shape;
+        String text;
+        Object arg;
+        long longArg;
+        String text2;
+        long longArg2;
+        long millis;
+    }
+
+}
@@ -0,0 +1,154 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+
+/**
+ * MappedLineReader
+ *
+ * Reads an ASCII transaction file through a read-only memory mapping of the
+ * file.  Line boundaries are found directly in the mapped bytes and each line
+ * is handed out as a Line - a CharSequence view onto the mapping - so no
+ * bytes are decoded or copied unless the caller asks for a String.
+ *
+ * Files of any size are handled by mapping WINDOW_SIZE bytes at a time; a
+ * window always starts at a line boundary, and a line running past the end
+ * of the window causes the next window to be mapped from the start of that
+ * line.
+ */
+public class MappedLineReader implements Galactic.LineSource {
+
+    /** Bytes mapped at once */
+    static final int WINDOW_SIZE = 64 * 1024 * 1024;
+
+    RandomAccessFile raf;
+    FileChannel channel;
+    long size;
+    int windowSize;
+
+    MappedByteBuffer window = null;
+    long windowStart = 0;
+    int pos = 0;
+
+    final Line line = new Line();
+
+
+    public MappedLineReader(File f) throws IOException {
+        this(f, WINDOW_SIZE);
+    }
+
+    MappedLineReader(File f, int windowSize) throws IOException {
+        this.raf = new RandomAccessFile(f, "r");
+        this.channel = raf.getChannel();
+        this.size = channel.size();
+        this.windowSize = windowSize;
+    }
+
+    /**
+     * Returns the next line, trimmed the same way as String.trim(), or null
+     * at the end of the file.  The returned Line is reused by the next call.
+     */
+    public CharSequence readLine() throws IOException {
+
+        while (true) {
+
+            if (null == window || pos >= window.limit()) {
+                if (windowStart + pos >= size) {
+                    return null;
+                }
+                map(windowStart + pos);
+            }
+
+            int limit = window.limit();
+            int i = pos;
+            while (i < limit && window.get(i) != '\n') {
+                i++;
+            }
+
+            if (i < limit || windowStart + limit == size) {
+                line.set(window, pos, i);
+                pos = (i < limit) ? i + 1 : i;
+                return line;
+            }
+
+            // the line runs past the end of the window
+            if (pos == 0) {
+                throw new IOException("Line at offset " + windowStart + " is longer than " + windowSize + " bytes");
+            }
+            map(windowStart + pos);
+        }
+    }
+
+    void map(long start) throws IOException {
+        long length = Math.min((long) windowSize, size - start);
+        window = channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+        windowStart = start;
+        pos = 0;
+    }
+
+    public void close() throws IOException {
+        window = null;
+        raf.close();
+    }
+
+
+    /**
+     * Line: a CharSequence over the bytes [start, end) of a mapped window,
+     * each byte read as one ISO-8859-1 (and so ASCII) character
+     */
+    static class Line implements CharSequence {
+
+        ByteBuffer buf;
+        int start;
+        int end;
+
+        Line() {
+        }
+
+        Line(ByteBuffer buf, int start, int end) {
+            this.buf = buf;
+            this.start = start;
+            this.end = end;
+        }
+
+        /**
+         * Points the view at [start, end), dropping leading and trailing
+         * control characters and spaces like String.trim()
+         */
+        void set(ByteBuffer buf, int start, int end) {
+            while (start < end && (buf.get(start) & 0xff) <= ' ') {
+                start++;
+            }
+            while (end > start && (buf.get(end - 1) & 0xff) <= ' ') {
+                end--;
+            }
+            this.buf = buf;
+            this.start = start;
+            this.end = end;
+        }
+
+        public int length() {
+            return end - start;
+        }
+
+        public char charAt(int index) {
+            return (char) (buf.get(start + index) & 0xff);
+        }
+
+        public CharSequence subSequence(int from, int to) {
+            return new Line(buf, start + from, start + to);
+        }
+
+        public String toString() {
+            char[] chars = new char[end - start];
+            for (int i=0; i<chars.length; i++) {
+                chars[i] = (char) (buf.get(start + i) & 0xff);
+            }
+            return new String(chars);
+        }
+    }
+
+}
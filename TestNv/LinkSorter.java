@@ -0,0 +1,306 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+
+
+/**
+ * LinkSorter
+ *
+ * Sorts links (a sort key plus the href) by key, in memory while they fit
+ * in the memory limit and otherwise as an external merge sort: each time
+ * the buffered links reach the limit they are sorted and spilled to a temp
+ * file as a run, and the runs are merged k ways at the end.  Links with
+ * equal keys keep the order they were added in.
+ *
+ *     LinkSorter sorter = new LinkSorter(64L << 20);
+ *     sorter.add(key, href);  ...
+ *     sorter.sortTo(sink);
+ *     sorter.close();
+ */
+public class LinkSorter implements Closeable {
+
+    /** Runs merged at once; more than this are merged in several passes */
+    static final int MAX_FAN_IN = 64;
+
+    static final int IO_BUFFER_SIZE = 64 * 1024;
+
+    final long memoryLimit;
+    List<Link> buffer = new ArrayList<Link>();
+    long bufferBytes = 0;
+    List<File> runs = new ArrayList<File>();
+    long count = 0;
+    int spilled = 0;
+
+
+    /**
+     * A sorter buffering about memoryLimit bytes of links before it spills
+     */
+    public LinkSorter(long memoryLimit) {
+        this.memoryLimit = memoryLimit;
+    }
+
+    /**
+     * Receives the sorted links
+     */
+    public interface Sink {
+        void link(String key, String href) throws IOException;
+    }
+
+    public void add(String key, String href) throws IOException {
+        buffer.add(new Link(key, href));
+        bufferBytes += Link.estimateBytes(key, href);
+        count++;
+        if (bufferBytes >= memoryLimit) {
+            spill();
+        }
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Number of runs spilled to disk so far (0: sorted in memory)
+     */
+    public int getRunCount() {
+        return spilled;
+    }
+
+    /**
+     * Sorts the links added so far: in memory, or by spilling the rest and
+     * merging the runs down to at most MAX_FAN_IN, which sortTo() merges as
+     * it hands them out
+     */
+    public void prepare() throws IOException {
+
+        if (runs.isEmpty()) {
+            Collections.sort(buffer);
+            return;
+        }
+
+        spill();
+        while (runs.size() > MAX_FAN_IN) {
+            List<File> merged = new ArrayList<File>();
+            for (int i=0; i<runs.size(); i+=MAX_FAN_IN) {
+                List<File> group = runs.subList(i, Math.min(runs.size(), i + MAX_FAN_IN));
+                if (group.size() == 1) {
+                    merged.add(group.get(0));
+                    continue;
+                }
+                File run = newRunFile();
+                RunWriter out = new RunWriter(run);
+                try {
+                    merge(group, out);
+                } finally {
+                    out.close();
+                }
+                for (File f : group) {
+                    f.delete();
+                }
+                merged.add(run);
+            }
+            runs = merged;
+        }
+    }
+
+    /**
+     * Hands every link added so far to the sink in key order
+     */
+    public void sortTo(Sink sink) throws IOException {
+
+        prepare();
+        if (runs.isEmpty()) {
+            for (Link link : buffer) {
+                sink.link(link.key, link.href);
+            }
+            return;
+        }
+        merge(runs, sink);
+    }
+
+    /**
+     * Deletes the run files
+     */
+    public void close() {
+        for (File f : runs) {
+            f.delete();
+        }
+        runs.clear();
+        buffer.clear();
+        bufferBytes = 0;
+    }
+
+    void spill() throws IOException {
+
+        if (buffer.isEmpty()) {
+            return;
+        }
+        Collections.sort(buffer);
+
+        File run = newRunFile();
+        RunWriter out = new RunWriter(run);
+        try {
+            for (Link link : buffer) {
+                out.link(link.key, link.href);
+            }
+        } finally {
+            out.close();
+        }
+        runs.add(run);
+        spilled++;
+
+        buffer = new ArrayList<Link>();
+        bufferBytes = 0;
+    }
+
+    static File newRunFile() throws IOException {
+        File f = File.createTempFile("links", ".run");
+        f.deleteOnExit();
+        return f;
+    }
+
+    /**
+     * k-way merge of sorted runs; of equal keys the one from the earlier run
+     * comes first, so the sort stays stable
+     */
+    static void merge(List<File> files, Sink sink) throws IOException {
+
+        PriorityQueue<RunReader> heads = new PriorityQueue<RunReader>(files.size());
+        try {
+            for (int i=0; i<files.size(); i++) {
+                RunReader in = new RunReader(files.get(i), i);
+                if (in.next()) {
+                    heads.add(in);
+                } else {
+                    in.close();
+                }
+            }
+
+            while (!heads.isEmpty()) {
+                RunReader in = heads.poll();
+                sink.link(in.key, in.href);
+                if (in.next()) {
+                    heads.add(in);
+                } else {
+                    in.close();
+                }
+            }
+        } finally {
+            for (RunReader in : heads) {
+                in.close();
+            }
+        }
+    }
+
+
+    /**
+     * Link: one buffered link
+     */
+    static class Link implements Comparable<Link> {
+
+        final String key;
+        final String href;
+
+        Link(String key, String href) {
+            this.key = key;
+            this.href = href;
+        }
+
+        public int compareTo(Link other) {
+            return key.compareTo(other.key);
+        }
+
+        /**
+         * Rough heap footprint: the Link, two Strings and their chars
+         */
+        static long estimateBytes(String key, String href) {
+            return 112 + 2L * (key.length() + href.length());
+        }
+    }
+
+    /**
+     * RunWriter: writes links to a run file, each string as its length and
+     * UTF-8 bytes
+     */
+    static class RunWriter implements Sink {
+
+        final DataOutputStream out;
+
+        RunWriter(File f) throws IOException {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(f), IO_BUFFER_SIZE));
+        }
+
+        public void link(String key, String href) throws IOException {
+            writeString(key);
+            writeString(href);
+        }
+
+        void writeString(String s) throws IOException {
+            byte[] bytes = s.getBytes("UTF-8");
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+
+        void close() throws IOException {
+            out.close();
+        }
+    }
+
+    /**
+     * RunReader: reads back a run file one link at a time
+     */
+    static class RunReader implements Comparable<RunReader> {
+
+        final DataInputStream in;
+        final int run;
+        String key;
+        String href;
+
+        RunReader(File f, int run) throws IOException {
+            this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(f), IO_BUFFER_SIZE));
+            this.run = run;
+        }
+
+        /**
+         * Reads the next link into key/href, false at the end of the run
+         */
+        boolean next() throws IOException {
+            int length;
+            try {
+                length = in.readInt();
+            } catch (EOFException eof) {
+                return false;
+            }
+            key = readString(length);
+            href = readString(in.readInt());
+            return true;
+        }
+
+        String readString(int length) throws IOException {
+            byte[] bytes = new byte[length];
+            in.readFully(bytes);
+            return new String(bytes, "UTF-8");
+        }
+
+        public int compareTo(RunReader other) {
+            int c = key.compareTo(other.key);
+            return (c != 0) ? c : (run - other.run);
+        }
+
+        void close() throws IOException {
+            in.close();
+        }
+    }
+
+}
@@ -1,9 +1,18 @@
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamReader;
 import javax.xml.transform.stream.StreamResult;
 
 import org.springframework.context.ApplicationContext;
@@ -28,6 +37,31 @@ import org.w3c.dom.NodeList;
  * 4) Write the transformed DOM document into a file or the console
  * 5) Unit test the code
  * 6) BONUS: write the transformed DOM document into HTML via servlet
+ *
+ * With -Dstream the file is not loaded into a DOM document: loadXML() only
+ * checks it, and displayByTagName() reads it with StAX and prints each
+ * element with the tag name as soon as it has been read, so the heap does
+ * not grow with the size of the file or the number of links.
+ * loadXMLStream() still keeps the elements (their name, href attribute and
+ * child node names) for a caller that wants them as a list.
+ *
+ * With -Dsnapshot the file is a TestMappings document, and loadXML() takes
+ * its TestMappings from a TestMappingsSnapshot (written on the first run,
+ * or when the file changed) instead of parsing it: sortLinks() sorts the
+ * snapshot's links by href without reading the file again, and writeXML()
+ * keeps its header.  displayByTagName() streams the file as with -Dstream.
+ *
+ * sortLinks() sorts the links of the loaded document (with -Dstream, of
+ * the file, streamed again) with a LinkSorter, spilling sorted runs to
+ * temp files past -DsortMemory MB (default: 64);
+ * writeXML() then writes the links in that order, after the file's
+ * TestMappings header.  The links are the elements named by -DsortTag
+ * (default: link), whatever tag name is displayed.  The sort key is given
+ * by -DsortKey: href (the default) or @name for an attribute, or the tag
+ * name of a child element whose text is the key.
+ *
+ * Given a directory or a glob instead of a file, every matching file goes
+ * through the same steps on a pool of threads - see TestBatch.
  */
 public class Test {
 
@@ -35,8 +69,144 @@ public class Test {
     File file = null;
     Document doc = null;
 
+    boolean streaming = Boolean.getBoolean("stream");
+    boolean snapshot = Boolean.getBoolean("snapshot");
+    TestMappings mappings = null;
+    String tagName = "link";
+    String rootName = null;
+    List<TaggedElement> elements = null;
+
+    Map<String, List<TaggedElement>> tagIndex = null;
+    List<TaggedElement> allElements = null;
+
+    String sortTag = System.getProperty("sortTag", "link");
+    String sortKey = System.getProperty("sortKey", "href");
+    long sortMemory = Long.getLong("sortMemory", 64).longValue() << 20;
+    LinkSorter sortedLinks = null;
+    long sortedCount = 0;
+
+    String outputFilename = null;
+
+    PrintStream out = System.out;
+    Exception error = null;
+
     public Test() {}
 
+    /**
+     * Where the loaded elements, the sort and any errors are reported
+     * (default: System.out)
+     */
+    public void setOut(PrintStream out) {
+        this.out = out;
+    }
+
+    public PrintStream getOut() {
+        return this.out;
+    }
+
+    /**
+     * Why the last loadXML(), displayByTagName(), sortLinks() or writeXML()
+     * that failed did so
+     */
+    public Exception getError() {
+        return this.error;
+    }
+
+    /**
+     * File writeXML() writes to (default: the marshaller's, testOutput.xml)
+     */
+    public void setOutputFilename(String outputFilename) {
+        this.outputFilename = outputFilename;
+    }
+
+    public String getOutputFilename() {
+        return this.outputFilename;
+    }
+
+    /**
+     * Tag name of the elements sortLinks() sorts and writeXML() writes - not
+     * the displayed tag name
+     */
+    public void setSortTag(String sortTag) {
+        this.sortTag = sortTag;
+    }
+
+    public String getSortTag() {
+        return this.sortTag;
+    }
+
+    /**
+     * Sort key of sortLinks(): "href" or "@name" for an attribute, any other
+     * name for the text of that child element
+     */
+    public void setSortKey(String sortKey) {
+        this.sortKey = sortKey;
+    }
+
+    public String getSortKey() {
+        return this.sortKey;
+    }
+
+    /**
+     * Bytes of links sortLinks() holds in memory before it spills a run
+     */
+    public void setSortMemory(long bytes) {
+        this.sortMemory = bytes;
+    }
+
+    /**
+     * The links the last sortLinks() sorted, kept for writeXML() (null
+     * after it); closing them deletes their spilled runs
+     */
+    public LinkSorter getSortedLinks() {
+        return this.sortedLinks;
+    }
+
+    /**
+     * Number of links the last sortLinks() sorted
+     */
+    public long getSortedCount() {
+        return this.sortedCount;
+    }
+
+    public void setSnapshot(boolean snapshot) {
+        this.snapshot = snapshot;
+    }
+
+    public boolean isSnapshot() {
+        return this.snapshot;
+    }
+
+    /**
+     * The TestMappings loaded from the snapshot, with -Dsnapshot
+     */
+    public TestMappings getMappings() {
+        return this.mappings;
+    }
+
+    public void setStreaming(boolean streaming) {
+        this.streaming = streaming;
+    }
+
+    public boolean isStreaming() {
+        return this.streaming;
+    }
+
+    /**
+     * Tag name of the elements a streaming loadXML() keeps
+     */
+    public void setTagName(String tagName) {
+        this.tagName = tagName;
+    }
+
+    public String getTagName() {
+        return this.tagName;
+    }
+
+    public List<TaggedElement> getElements() {
+        return this.elements;
+    }
+
     public void setFilename(String f) {
         this.filename = f;
     }
@@ -50,7 +220,7 @@ public class Test {
         try {
             file = new File(getFilename());
             if (!file.exists() || !file.isFile()) {
-                System.out.println("ERROR: Invalid input file. Please check that it exists and is a valid XML file.");
+                out.println("ERROR: Invalid input file. Please check that it exists and is a valid XML file.");
             } else {
                 isValid = true;
             }
@@ -62,72 +232,607 @@ public class Test {
     }
 
 
-    public void loadXML() {
+    /**
+     * Loads the file into a DOM document (with -Dstream only checks it);
+     * false, with getError(), when it could not be loaded
+     */
+    public boolean loadXML() {
+        if (snapshot) {
+            // the TestMappings, from its snapshot; displayByTagName()
+            // streams the file
+            elements = null;
+            try {
+                if (!parseFile()) {
+                    out.println("ERROR: Unable to parse XML File - " + getFilename());
+                    throw new Exception("ERROR: Parse file");
+                }
+                mappings = TestMappingsSnapshot.load(file);
+                return true;
+            } catch (Exception e) {
+                e.printStackTrace();
+                error = e;
+                return false;
+            }
+        }
+        if (streaming) {
+            // nothing is kept - displayByTagName() streams the file
+            elements = null;
+            if (!parseFile()) {
+                out.println("ERROR: Unable to parse XML File - " + getFilename());
+                error = new Exception("ERROR: Parse file");
+                return false;
+            }
+            return true;
+        }
         try {
             if (null == doc) {
                 if (!parseFile()) {
-                    System.out.println("ERROR: Unable to parse XML File - " + getFilename());                    
+                    out.println("ERROR: Unable to parse XML File - " + getFilename());                    
                     throw new Exception("ERROR: Parse file");
                 }
             }
-            DocumentBuilderFactory docFactory = DocumentBuilderFactory.newInstance();
-            DocumentBuilder docBuilder = docFactory.newDocumentBuilder();
+            DocumentBuilder docBuilder = TestResources.getDocumentBuilder();
             doc = docBuilder.parse(file);
             doc.getDocumentElement().normalize();
+            tagIndex = null;
+            allElements = null;
+            return true;
 
         } catch (Exception e) {
             e.printStackTrace();
+            error = e;
+            return false;
         }
     }
 
-    public void displayByTagName(String tagname) {
+    /**
+     * Streams the file with StAX, keeping the root element name and, in
+     * document order, every element named tagname
+     */
+    public void loadXMLStream(String tagname) {
+        final List<TaggedElement> found = new ArrayList<TaggedElement>();
+        if (streamElements(tagname, new ElementHandler() {
+                public void root(String name) {
+                }
+                public void element(TaggedElement elmt) {
+                    found.add(elmt);
+                }
+            })) {
+            elements = found;
+            tagName = tagname;
+        }
+    }
 
-        try {
+    /**
+     * ElementHandler: receives the root element name, then the elements of
+     * streamElements() one at a time
+     */
+    interface ElementHandler {
+        void root(String name);
+        void element(TaggedElement elmt);
+    }
 
-            NodeList nodeList = doc.getElementsByTagName(tagname);
+    /**
+     * Streams the file with StAX, handing each element named tagname to the
+     * handler once it has been read; false when the file could not be read
+     */
+    boolean streamElements(String tagname, ElementHandler handler) {
+        InputStream in = null;
+        try {
+            if (!parseFile()) {
+                out.println("ERROR: Unable to parse XML File - " + getFilename());
+                throw new Exception("ERROR: Parse file");
+            }
 
-            System.out.println("Root element :" + doc.getDocumentElement().getNodeName());
+            in = new FileInputStream(file);
+            XMLStreamReader reader = createStreamReader(in);
+            try {
+                readElements(reader, tagname, handler);
+            } finally {
+                reader.close();
+            }
+            return true;
 
-            for (int i = 0; i < nodeList.getLength(); i++) {
-                Node node = nodeList.item(i);
-                System.out.println("\nElement type: " + node.getNodeName());
-            
-                if (node.hasChildNodes()) {
-                    displayChildNodes(node);
+        } catch (Exception e) {
+            e.printStackTrace();
+            error = e;
+            return false;
+        } finally {
+            try {
+                if (null != in) {
+                    in.close();
                 }
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+    }
 
-                if (node.getNodeType() == Node.ELEMENT_NODE) {
-                    Element elmt = (Element) node;
+    static XMLStreamReader createStreamReader(InputStream in) throws Exception {
+        return TestResources.getInputFactory().createXMLStreamReader(in);
+    }
+
+    /**
+     * Hands the elements named tagname to the handler in document order,
+     * with their child node names as the DOM path reports them after
+     * normalize(): adjacent text is one #text node.  An element is handed
+     * over at its end tag; elements nested in another one named tagname
+     * wait for the outer one, which comes first.
+     */
+    void readElements(XMLStreamReader reader, String tagname, ElementHandler handler) throws Exception {
+
+        // elements read, in document order, not yet handed over
+        List<TaggedElement> pending = new ArrayList<TaggedElement>();
+        // open elements named tagname and the depth each was opened at
+        List<TaggedElement> open = new ArrayList<TaggedElement>();
+        List<Integer> openDepths = new ArrayList<Integer>();
+        int depth = 0;
+        int lastEvent = -1;
+
+        rootName = null;
+        while (reader.hasNext()) {
+            int event = reader.next();
+
+            TaggedElement parent = null;
+            if (!open.isEmpty() && openDepths.get(open.size() - 1) == depth) {
+                parent = open.get(open.size() - 1);
+            }
 
-                    if (node.hasAttributes()) {
-                        System.out.println("element attribute: " + elmt.getAttribute("href"));
+            switch (event) {
+            case XMLStreamConstants.START_ELEMENT:
+                String name = qualifiedName(reader);
+                if (null == rootName) {
+                    rootName = name;
+                    handler.root(name);
+                }
+                if (null != parent) {
+                    parent.childNames.add(name);
+                }
+                depth++;
+                if (name.equals(tagname)) {
+                    String href = reader.getAttributeValue(null, "href");
+                    TaggedElement elmt = new TaggedElement(name, (null == href) ? "" : href,
+                                                           reader.getAttributeCount() + reader.getNamespaceCount() > 0);
+                    pending.add(elmt);
+                    open.add(elmt);
+                    openDepths.add(depth);
+                }
+                break;
+            case XMLStreamConstants.END_ELEMENT:
+                if (!open.isEmpty() && openDepths.get(open.size() - 1) == depth) {
+                    open.remove(open.size() - 1);
+                    openDepths.remove(openDepths.size() - 1);
+                    if (open.isEmpty()) {
+                        for (TaggedElement elmt : pending) {
+                            handler.element(elmt);
+                        }
+                        pending.clear();
                     }
                 }
+                depth--;
+                break;
+            case XMLStreamConstants.CHARACTERS:
+            case XMLStreamConstants.SPACE:
+            case XMLStreamConstants.ENTITY_REFERENCE:
+                if (null != parent && lastEvent != XMLStreamConstants.CHARACTERS) {
+                    parent.childNames.add("#text");
+                }
+                event = XMLStreamConstants.CHARACTERS;
+                break;
+            case XMLStreamConstants.CDATA:
+                if (null != parent) {
+                    parent.childNames.add("#cdata-section");
+                }
+                break;
+            case XMLStreamConstants.COMMENT:
+                if (null != parent) {
+                    parent.childNames.add("#comment");
+                }
+                break;
+            case XMLStreamConstants.PROCESSING_INSTRUCTION:
+                if (null != parent) {
+                    parent.childNames.add(reader.getPITarget());
+                }
+                break;
+            }
+            lastEvent = event;
+        }
+    }
+
+    static String qualifiedName(XMLStreamReader reader) {
+        String prefix = reader.getPrefix();
+        if (null == prefix || prefix.length() == 0) {
+            return reader.getLocalName();
+        }
+        return prefix + ":" + reader.getLocalName();
+    }
 
+    /**
+     * Prints the elements named tagname; false, with getError(), when the
+     * file could not be read
+     */
+    public boolean displayByTagName(String tagname) {
+
+        if (streaming || null != mappings) {
+            return displayStreamedByTagName(tagname);
+        }
+
+        try {
+
+            List<TaggedElement> matches = getTagIndex().get(tagname);
+            if ("*".equals(tagname)) {
+                matches = allElements;
             }
+
+            displayElements(doc.getDocumentElement().getNodeName(), matches);
+            return true;
+
         } catch (Exception e) {
             e.printStackTrace();
+            error = e;
+            return false;
         }
     }
 
     public void displayChildNodes(Node node) {
-        NodeList c = node.getChildNodes();
-        for (int i=0; i < c.getLength(); i++) {
-            Node cnode = c.item(i);
-            System.out.println("\nchild element type: " + cnode.getNodeName());
+        for (Node cnode = node.getFirstChild(); null != cnode; cnode = cnode.getNextSibling()) {
+            out.println("\nchild element type: " + cnode.getNodeName());
         }
     }
 
+    /**
+     * Index of the loaded document from tag name to its elements, in
+     * document order as getElementsByTagName() returns them; built by one
+     * walk of the tree on the first query and kept until the next loadXML()
+     */
+    Map<String, List<TaggedElement>> getTagIndex() {
+
+        if (null != tagIndex) {
+            return tagIndex;
+        }
+
+        Map<String, List<TaggedElement>> index = new HashMap<String, List<TaggedElement>>();
+        List<TaggedElement> all = new ArrayList<TaggedElement>();
+
+        // pre-order walk over the siblings and children, without recursion
+        Node node = doc.getDocumentElement();
+        while (null != node) {
+            if (node.getNodeType() == Node.ELEMENT_NODE) {
+                Element elmt = (Element) node;
+                TaggedElement entry = new TaggedElement(elmt.getNodeName(), elmt.getAttribute("href"), elmt.hasAttributes());
+                for (Node cnode = node.getFirstChild(); null != cnode; cnode = cnode.getNextSibling()) {
+                    entry.childNames.add(cnode.getNodeName());
+                }
+
+                List<TaggedElement> tagged = index.get(entry.name);
+                if (null == tagged) {
+                    tagged = new ArrayList<TaggedElement>();
+                    index.put(entry.name, tagged);
+                }
+                tagged.add(entry);
+                all.add(entry);
 
-    public void sortLinks() {
-        System.out.println("\nsort links");
+                if (null != node.getFirstChild()) {
+                    node = node.getFirstChild();
+                    continue;
+                }
+            }
+            while (null != node && null == node.getNextSibling()) {
+                node = node.getParentNode();
+                if (node == doc) {
+                    node = null;
+                }
+            }
+            if (null != node) {
+                node = node.getNextSibling();
+            }
+        }
+
+        allElements = all;
+        tagIndex = index;
+        return tagIndex;
+    }
+
+    /**
+     * Prints the elements as displayByTagName() does
+     */
+    void displayElements(String root, List<TaggedElement> matches) {
+
+        out.println("Root element :" + root);
+
+        if (null == matches) {
+            return;
+        }
+        for (TaggedElement elmt : matches) {
+            displayElement(elmt);
+        }
+    }
+
+    void displayElement(TaggedElement elmt) {
+
+        out.println("\nElement type: " + elmt.name);
+
+        for (String child : elmt.childNames) {
+            out.println("\nchild element type: " + child);
+        }
+
+        if (elmt.hasAttributes) {
+            out.println("element attribute: " + elmt.href);
+        }
+    }
+
+
+    /**
+     * displayByTagName() over the elements kept by loadXMLStream(), or else
+     * over the file, streamed: each element is printed as soon as it has
+     * been read and then dropped
+     */
+    public boolean displayStreamedByTagName(String tagname) {
+
+        if (null != elements && tagname.equals(tagName)) {
+            displayElements(rootName, elements);
+            return true;
+        }
+
+        return streamElements(tagname, new ElementHandler() {
+            public void root(String name) {
+                out.println("Root element :" + name);
+            }
+            public void element(TaggedElement elmt) {
+                displayElement(elmt);
+            }
+        });
+    }
+
+
+    /**
+     * Sorts the links, keeping them for writeXML(); false, with getError(),
+     * when the file could not be read
+     */
+    public boolean sortLinks() {
+        out.println("\nsort links");
+
+        InputStream in = null;
+        LinkSorter sorter = new LinkSorter(sortMemory);
+        try {
+            if (!parseFile()) {
+                out.println("ERROR: Unable to parse XML File - " + getFilename());
+                throw new Exception("ERROR: Parse file");
+            }
+
+            if (null != mappings && "href".equals(sortKey)) {
+                // the snapshot's links, without reading the file again
+                addLinks(mappings, sorter);
+            } else if (null != doc) {
+                // the loaded document's links, without parsing it again
+                readLinks(doc, getSortTag(), sorter);
+            } else {
+                in = new FileInputStream(file);
+                XMLStreamReader reader = createStreamReader(in);
+                try {
+                    readLinks(reader, getSortTag(), sorter);
+                } finally {
+                    reader.close();
+                }
+            }
+
+            sorter.prepare();
+            if (null != sortedLinks) {
+                sortedLinks.close();
+            }
+            // kept, sorted, for writeXML() to stream out
+            sortedLinks = sorter;
+            sortedCount = sorter.getCount();
+
+            out.println("sorted " + sorter.getCount() + " links by " + getSortKey()
+                        + ((sorter.getRunCount() > 0) ? " (" + sorter.getRunCount() + " runs spilled)" : ""));
+            return true;
+
+        } catch (Exception e) {
+            e.printStackTrace();
+            error = e;
+            return false;
+        } finally {
+            if (sorter != sortedLinks) {
+                sorter.close();
+            }
+            try {
+                if (null != in) {
+                    in.close();
+                }
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Adds the links of tm to the sorter, keyed by href
+     */
+    static void addLinks(TestMappings tm, LinkSorter sorter) throws IOException {
+        if (null == tm.getLinks()) {
+            return;
+        }
+        for (Object o : tm.getLinks().getLinkItemList()) {
+            String href = ((LinkItem) o).getHref();
+            href = (null == href) ? "" : href;
+            sorter.add(href, href);
+        }
     }
 
-    public void writeXML() {
-        ApplicationContext testContext = new ClassPathXmlApplicationContext("testContext.xml");
-        TestSpringMarshaller marshaller = (TestSpringMarshaller) testContext.getBean("test");
+    /**
+     * readLinks() over a loaded document: the same links and keys, added in
+     * the same order (at the start tag when keyed by an attribute, else at
+     * the end tag)
+     */
+    void readLinks(Document document, String tagname, LinkSorter sorter) throws IOException {
+
+        boolean byAttribute = "href".equals(sortKey) || sortKey.startsWith("@");
+        String keyName = sortKey.startsWith("@") ? sortKey.substring(1) : sortKey;
+
+        // pre-order walk, as getTagIndex(), leaving each element once its
+        // children are done
+        Node node = document.getDocumentElement();
+        while (null != node) {
+            if (node.getNodeType() == Node.ELEMENT_NODE) {
+                if (byAttribute && tagname.equals(node.getNodeName())) {
+                    sorter.add(((Element) node).getAttribute(keyName), ((Element) node).getAttribute("href"));
+                }
+                if (null != node.getFirstChild()) {
+                    node = node.getFirstChild();
+                    continue;
+                }
+                if (!byAttribute) {
+                    addLink((Element) node, tagname, keyName, sorter);
+                }
+            }
+            while (null != node && null == node.getNextSibling()) {
+                node = node.getParentNode();
+                if (node == document) {
+                    node = null;
+                } else if (!byAttribute) {
+                    addLink((Element) node, tagname, keyName, sorter);
+                }
+            }
+            if (null != node) {
+                node = node.getNextSibling();
+            }
+        }
+    }
+
+    /**
+     * Adds elmt, if it is named tagname, keyed by the text of its first
+     * element named keyName outside links nested in it
+     */
+    static void addLink(Element elmt, String tagname, String keyName, LinkSorter sorter) throws IOException {
+        if (!tagname.equals(elmt.getNodeName())) {
+            return;
+        }
+        Node key = findKey(elmt, tagname, keyName);
+        sorter.add((null == key) ? "" : key.getTextContent().trim(), elmt.getAttribute("href"));
+    }
+
+    static Node findKey(Node parent, String tagname, String keyName) {
+        for (Node c = parent.getFirstChild(); null != c; c = c.getNextSibling()) {
+            if (c.getNodeType() != Node.ELEMENT_NODE || tagname.equals(c.getNodeName())) {
+                continue;
+            }
+            if (keyName.equals(c.getNodeName())) {
+                return c;
+            }
+            Node key = findKey(c, tagname, keyName);
+            if (null != key) {
+                return key;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Adds every element named tagname to the sorter, keyed as sortKey says;
+     * a missing key or href is ""
+     */
+    void readLinks(XMLStreamReader reader, String tagname, LinkSorter sorter) throws Exception {
+
+        boolean byAttribute = "href".equals(sortKey) || sortKey.startsWith("@");
+        String keyName = sortKey.startsWith("@") ? sortKey.substring(1) : sortKey;
+
+        // links waiting for the end of their key element: href, key text
+        List<String> hrefs = new ArrayList<String>();
+        List<StringBuilder> keys = new ArrayList<StringBuilder>();
+        // depth of the key element being read (0: none)
+        int keyDepth = 0;
+        int depth = 0;
+
+        while (reader.hasNext()) {
+            switch (reader.next()) {
+            case XMLStreamConstants.START_ELEMENT:
+                depth++;
+                String name = qualifiedName(reader);
+                if (name.equals(tagname)) {
+                    String href = reader.getAttributeValue(null, "href");
+                    href = (null == href) ? "" : href;
+                    if (byAttribute) {
+                        String key = reader.getAttributeValue(null, keyName);
+                        sorter.add((null == key) ? "" : key, href);
+                    } else {
+                        hrefs.add(href);
+                        keys.add(null);
+                    }
+                } else if (!keys.isEmpty() && 0 == keyDepth && name.equals(keyName)
+                           && null == keys.get(keys.size() - 1)) {
+                    keys.set(keys.size() - 1, new StringBuilder());
+                    keyDepth = depth;
+                }
+                break;
+            case XMLStreamConstants.END_ELEMENT:
+                if (depth == keyDepth) {
+                    keyDepth = 0;
+                } else if (!byAttribute && qualifiedName(reader).equals(tagname)) {
+                    int last = keys.size() - 1;
+                    StringBuilder key = keys.remove(last);
+                    sorter.add((null == key) ? "" : key.toString().trim(), hrefs.remove(last));
+                }
+                depth--;
+                break;
+            case XMLStreamConstants.CHARACTERS:
+            case XMLStreamConstants.CDATA:
+            case XMLStreamConstants.SPACE:
+                if (keyDepth > 0) {
+                    keys.get(keys.size() - 1).append(reader.getText());
+                }
+                break;
+            }
+        }
+    }
+
+    /**
+     * Writes the links in sortLinks() order, streamed one at a time after
+     * the file's own TestMappings header (if it is a TestMappings file), or
+     * without a sort the marshaller's own write object; false, with
+     * getError(), when they could not be written
+     */
+    public boolean writeXML() {
+        TestSpringMarshaller marshaller = TestResources.getMarshaller();
         //testMarshaller.writeObjToXML(doc);
-        marshaller.writeObjToXML();
+        if (null != outputFilename) {
+            marshaller.setFilename(outputFilename);
+        }
+        if (null == sortedLinks) {
+            marshaller.writeObjToXML();
+            return true;
+        }
+
+        TestSpringMarshaller.LinkWriter writer = null;
+        try {
+            TestMappings header = (null != mappings) ? mappings : marshaller.readHeaderFromXML(file);
+            writer = marshaller.openLinkWriter(header);
+            final TestSpringMarshaller.LinkWriter links = writer;
+            final LinkItem link = new LinkItem();
+            sortedLinks.sortTo(new LinkSorter.Sink() {
+                public void link(String key, String href) throws IOException {
+                    link.setHref(href);
+                    links.write(link);
+                }
+            });
+            writer = null;
+            links.close();
+            return true;
+        } catch (Exception e) {
+            e.printStackTrace();
+            error = e;
+            return false;
+        } finally {
+            if (null != writer) {
+                try {
+                    writer.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+            sortedLinks.close();
+            sortedLinks = null;
+        }
     }
 
 
@@ -136,7 +841,7 @@ public class Test {
         StringBuilder sb = new StringBuilder();
         sb.append("***** Usage *****\n");
         sb.append(this.getClass().getName());
-        sb.append(" <pathname of XML file> ");
+        sb.append(" <pathname of XML file | directory | glob, e.g. 'feeds/*.xml'> ");
         sb.append(" [optional: <name of tag> (default: link)]");
         return sb.toString();
     }
@@ -162,7 +867,13 @@ public class Test {
             }
         }
         
+        if (TestBatch.isBatch(argv[0])) {
+            TestBatch.run(argv[0], tag);
+            return;
+        }
+
         theTest.setFilename(argv[0]);
+        theTest.setTagName(tag);
         if (theTest.parseFile()) {
             theTest.loadXML();
             theTest.displayByTagName(tag);
@@ -174,5 +885,35 @@ public class Test {
 
     }
 
-}
 
+    /**
+     * TaggedElement: what a streaming load, or the tag index of a loaded
+     * document, keeps of one element
+     */
+    public static class TaggedElement {
+
+        final String name;
+        final String href;
+        final boolean hasAttributes;
+        final List<String> childNames = new ArrayList<String>(4);
+
+        TaggedElement(String name, String href, boolean hasAttributes) {
+            this.name = name;
+            this.href = href;
+            this.hasAttributes = hasAttributes;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getHref() {
+            return href;
+        }
+
+        public List<String> getChildNames() {
+            return childNames;
+        }
+    }
+
+}
@@ -0,0 +1,272 @@
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * TestBatch
+ *
+ * Runs Test over many XML files in one JVM: load, displayByTagName(),
+ * sortLinks() and writeXML() for each file, with the files spread over a
+ * fixed pool of worker threads:
+ *
+ *     java -Dworkers=4 Test feeds/               every *.xml in feeds
+ *     java -Dworkers=4 Test 'feeds/*.xml' link   a glob (quote it)
+ *
+ *     -Dworkers=n      worker threads (default: one per processor)
+ *     -DoutputDir=dir  where the sorted files are written, under the input
+ *                      file name (default: testOutput)
+ *
+ * At most two files per worker are submitted and not yet finished, so a
+ * directory of any size never queues more than that; the heap holds at
+ * most one loaded file per worker.  Each file's output is kept apart while
+ * it is processed and printed as one block when it is done, so the workers
+ * do not wait on each other to print.  A file is only reported as OK, and
+ * only written, when every step succeeded.  Per-file timings and the
+ * overall throughput are reported at the end.
+ */
+public class TestBatch {
+
+    static final String DEFAULT_OUTPUT_DIR = "testOutput";
+
+    final String tag;
+    final int workers;
+    final File outputDir;
+
+
+    TestBatch(String tag, int workers, File outputDir) {
+        this.tag = tag;
+        this.workers = workers;
+        this.outputDir = outputDir;
+    }
+
+    /**
+     * Whether the argument names a directory or is a glob rather than one
+     * file
+     */
+    static boolean isBatch(String arg) {
+        return new File(arg).isDirectory() || arg.indexOf('*') >= 0 || arg.indexOf('?') >= 0
+            || arg.indexOf('[') >= 0 || arg.indexOf('{') >= 0;
+    }
+
+    static void run(String arg, String tag) {
+
+        int workers = Integer.getInteger("workers", Runtime.getRuntime().availableProcessors()).intValue();
+        File outputDir = new File(System.getProperty("outputDir", DEFAULT_OUTPUT_DIR));
+
+        try {
+            List<File> files = listFiles(arg);
+            if (files.isEmpty()) {
+                System.out.println("ERROR: No XML files match " + arg);
+                return;
+            }
+            if (!outputDir.isDirectory() && !outputDir.mkdirs()) {
+                System.out.println("ERROR: Unable to create output directory " + outputDir);
+                return;
+            }
+            System.out.println(new TestBatch(tag, Math.max(1, workers), outputDir).process(files));
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * The *.xml files of a directory, or the files matching a glob in its
+     * last path element, in name order
+     */
+    static List<File> listFiles(String arg) throws IOException {
+
+        Path dir;
+        String glob;
+        if (new File(arg).isDirectory()) {
+            dir = Paths.get(arg);
+            glob = "*.xml";
+        } else {
+            Path path = Paths.get(arg);
+            dir = (null == path.getParent()) ? Paths.get(".") : path.getParent();
+            glob = path.getFileName().toString();
+        }
+
+        List<File> files = new ArrayList<File>();
+        DirectoryStream<Path> stream = Files.newDirectoryStream(dir, glob);
+        try {
+            for (Path p : stream) {
+                if (Files.isRegularFile(p)) {
+                    files.add(p.toFile());
+                }
+            }
+        } finally {
+            stream.close();
+        }
+        Collections.sort(files);
+        return files;
+    }
+
+    /**
+     * Processes every file, returning the report
+     */
+    String process(List<File> files) throws InterruptedException {
+
+        final FileReport[] reports = new FileReport[files.size()];
+        final Semaphore inFlight = new Semaphore(workers * 2);
+        ExecutorService pool = Executors.newFixedThreadPool(workers);
+
+        long start = System.nanoTime();
+        try {
+            for (int i=0; i<files.size(); i++) {
+                // backpressure: wait for a file to finish before queuing more
+                inFlight.acquire();
+                final int index = i;
+                final File f = files.get(i);
+                try {
+                    pool.execute(new Runnable() {
+                        public void run() {
+                            try {
+                                reports[index] = processFile(f);
+                            } catch (Throwable t) {
+                                // an Error (e.g. out of memory) fails this
+                                // file only, and is reported with it
+                                t.printStackTrace();
+                                FileReport failed = new FileReport(f);
+                                failed.error = t;
+                                reports[index] = failed;
+                            } finally {
+                                inFlight.release();
+                            }
+                        }
+                    });
+                } catch (RuntimeException e) {
+                    inFlight.release();
+                    throw e;
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+        pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        long elapsed = System.nanoTime() - start;
+
+        return report(reports, elapsed);
+    }
+
+    FileReport processFile(File f) {
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        PrintStream out = new PrintStream(output);
+        try {
+            return processFile(f, out);
+        } finally {
+            out.flush();
+            synchronized (System.out) {
+                System.out.print(output);
+                System.out.flush();
+            }
+        }
+    }
+
+    FileReport processFile(File f, PrintStream out) {
+
+        FileReport r = new FileReport(f);
+        Test test = new Test();
+        test.setOut(out);
+        test.setFilename(f.getPath());
+        test.setTagName(tag);
+        test.setOutputFilename(new File(outputDir, f.getName()).getPath());
+
+        long t0 = System.nanoTime();
+        if (!test.parseFile()) {
+            out.println("ERROR: Failed processing " + f + ". Sorry!");
+            r.error = new IOException("Invalid input file " + f);
+            return r;
+        }
+        boolean ok = test.loadXML();
+        long t1 = System.nanoTime();
+        r.loadNanos = t1 - t0;
+        ok = ok && test.displayByTagName(tag);
+        long t2 = System.nanoTime();
+        r.displayNanos = t2 - t1;
+        // without sorted links writeXML() would write the marshaller's
+        // default document instead
+        ok = ok && test.sortLinks();
+        long t3 = System.nanoTime();
+        r.sortNanos = t3 - t2;
+        ok = ok && test.writeXML();
+        r.writeNanos = System.nanoTime() - t3;
+
+        if (!ok) {
+            out.println("ERROR: Failed processing " + f + ". Sorry!");
+            r.error = test.getError();
+            return r;
+        }
+        r.links = test.getSortedCount();
+        r.ok = true;
+        return r;
+    }
+
+    String report(FileReport[] reports, long elapsed) {
+
+        StringBuilder sb = new StringBuilder();
+        sb.append("***** Batch report *****\n");
+        sb.append(String.format("%-40s %12s %10s %10s %10s %10s %10s %10s%n",
+                                "file", "bytes", "links", "load ms", "display ms", "sort ms", "write ms", "total ms"));
+
+        long bytes = 0;
+        long links = 0;
+        int failed = 0;
+        for (FileReport r : reports) {
+            if (!r.ok) {
+                failed++;
+                sb.append(String.format("%-40s %12d %10s%s%n", r.file.getName(), r.file.length(), "FAILED",
+                                        (null == r.error) ? "" : " " + r.error));
+                continue;
+            }
+            bytes += r.file.length();
+            links += r.links;
+            sb.append(String.format("%-40s %12d %10d %10.1f %10.1f %10.1f %10.1f %10.1f%n", r.file.getName(), r.file.length(), r.links,
+                                    r.loadNanos / 1e6, r.displayNanos / 1e6, r.sortNanos / 1e6, r.writeNanos / 1e6, r.totalNanos() / 1e6));
+        }
+
+        double seconds = elapsed / 1e9;
+        sb.append(String.format("%d files (%d failed), %d links, %.1f MB in %.2f s with %d workers: %.1f files/s, %.1f MB/s",
+                                reports.length, failed, links, bytes / 1e6, seconds, workers,
+                                reports.length / seconds, bytes / 1e6 / seconds));
+        return sb.toString();
+    }
+
+
+    /**
+     * FileReport: the timings of one file
+     */
+    static class FileReport {
+
+        final File file;
+        boolean ok = false;
+        Throwable error = null;
+        long links;
+        long loadNanos;
+        long displayNanos;
+        long sortNanos;
+        long writeNanos;
+
+        FileReport(File file) {
+            this.file = file;
+        }
+
+        long totalNanos() {
+            return loadNanos + displayNanos + sortNanos + writeNanos;
+        }
+    }
+
+}
@@ -0,0 +1,39 @@
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+
+
+/**
+ * TestBench
+ *
+ * Input of the TestNv JMH benchmarks in bench/ (see bench/pom.xml): a
+ * generated currency feed of the given number of links, 100 to a currency.
+ */
+public class TestBench {
+
+    static File writeFeed(int links) throws IOException {
+        File f = File.createTempFile("testbench", ".xml");
+        f.deleteOnExit();
+        BufferedWriter out = new BufferedWriter(new FileWriter(f));
+        try {
+            out.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<currencies>\n");
+            for (int i=0; i<links; i++) {
+                if (i % 100 == 0) {
+                    if (i > 0) {
+                        out.write("    </links>\n  </currency>\n");
+                    }
+                    out.write("  <currency iso=\"C" + (i / 100) + "\">\n    <name>Currency " + (i / 100) + "</name>\n    <links>\n");
+                }
+                out.write("      <link href=\"someurl.com/id/" + ((i * 7919L) % 1000003) + "\">link " + i + "</link>\n");
+            }
+            if (links > 0) {
+                out.write("    </links>\n  </currency>\n");
+            }
+            out.write("</currencies>\n");
+        } finally {
+            out.close();
+        }
+        return f;
+    }
+}
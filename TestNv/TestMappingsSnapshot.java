@@ -0,0 +1,353 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+
+/**
+ * TestMappingsSnapshot
+ *
+ * Compact binary snapshot of a TestMappings (iso, name, symbol, sub unit
+ * and links) parsed from a reference XML file, so later runs map the
+ * snapshot instead of parsing the XML again:
+ *
+ *     TestMappings tm = TestMappingsSnapshot.load(new File("currencies.xml"));
+ *
+ * load() uses the snapshot next to the source (currencies.xml.snap) when it
+ * is current and otherwise unmarshals the XML and writes a new one.  A
+ * snapshot is current when it records the source's length and the CRC32 of
+ * its content - a timestamp alone would miss an edit of the same length
+ * made within the file system's timestamp granularity.  The recorded
+ * timestamp is brought up to date after a touch or a copy.
+ *
+ * Format (version 1, big endian, counts and indices as unsigned varints):
+ *
+ *     int     MAGIC
+ *     short   VERSION
+ *     long    source timestamp, long source length, int source CRC32
+ *     varint  string count, then each string: varint UTF-8 length, bytes
+ *     varint  iso, name, symbol, sub unit name  (string index + 1, 0: null)
+ *     varint  link count (0: no Links), then each link:
+ *             varint href prefix (string index + 1), varint suffix length
+ *             + 1 (0: null href), suffix UTF-8 bytes
+ *
+ * An href is split after its last '/', so the prefix shared by most links
+ * of a feed is stored once in the string table.
+ */
+public class TestMappingsSnapshot {
+
+    static final int MAGIC = 0x544d5353;    // "TMSS"
+    static final short VERSION = 1;
+
+    static final String SUFFIX = ".snap";
+
+    /** Largest snapshot read() maps (in one buffer) */
+    static final long MAX_SNAPSHOT_SIZE = Integer.MAX_VALUE;
+
+    /** MAGIC, VERSION, then the source timestamp, length and CRC32 */
+    static final int TIMESTAMP_OFFSET = 6;
+    static final int HEADER_SIZE = 26;
+
+    static final int IO_BUFFER_SIZE = 64 * 1024;
+
+
+    private TestMappingsSnapshot() {}
+
+    public static File snapshotFile(File source) {
+        return new File(source.getPath() + SUFFIX);
+    }
+
+    /**
+     * The TestMappings of source, from its snapshot when current, else
+     * unmarshalled from the XML and saved as the new snapshot
+     */
+    public static TestMappings load(File source) throws IOException {
+
+        File snapshot = snapshotFile(source);
+        if (snapshot.length() <= MAX_SNAPSHOT_SIZE && isCurrent(snapshot, source)) {
+            return read(snapshot);
+        }
+
+        TestMappings tm = TestResources.getMarshaller().readObjFromXML(source);
+        write(tm, snapshot, source);
+        if (snapshot.length() > MAX_SNAPSHOT_SIZE) {
+            // too large for read() to map: parse the XML on every load
+            snapshot.delete();
+        }
+        return tm;
+    }
+
+    /**
+     * Whether the snapshot exists, has this version and was taken from the
+     * current content of source.  The CRC32 is always checked; when only the
+     * timestamp differs, the snapshot's timestamp is rewritten.
+     */
+    public static boolean isCurrent(File snapshot, File source) throws IOException {
+
+        if (!snapshot.isFile() || !source.isFile()) {
+            return false;
+        }
+
+        RandomAccessFile raf = new RandomAccessFile(snapshot, "r");
+        long timestamp;
+        try {
+            if (raf.length() < HEADER_SIZE || raf.readInt() != MAGIC || raf.readShort() != VERSION) {
+                return false;
+            }
+            timestamp = raf.readLong();
+            long length = raf.readLong();
+            int crc = raf.readInt();
+            if (length != source.length() || crc != checksum(source)) {
+                return false;
+            }
+        } finally {
+            raf.close();
+        }
+
+        long lastModified = source.lastModified();
+        if (timestamp != lastModified && snapshot.canWrite()) {
+            raf = new RandomAccessFile(snapshot, "rw");
+            try {
+                raf.seek(TIMESTAMP_OFFSET);
+                raf.writeLong(lastModified);
+            } finally {
+                raf.close();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * CRC32 of the file's content, read through a mapping
+     */
+    static int checksum(File f) throws IOException {
+
+        CRC32 crc = new CRC32();
+        FileInputStream in = new FileInputStream(f);
+        try {
+            FileChannel channel = in.getChannel();
+            long size = channel.size();
+            byte[] chunk = new byte[IO_BUFFER_SIZE];
+            for (long pos=0; pos<size; pos+=Integer.MAX_VALUE) {
+                MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, pos, Math.min(Integer.MAX_VALUE, size - pos));
+                while (map.hasRemaining()) {
+                    int n = Math.min(chunk.length, map.remaining());
+                    map.get(chunk, 0, n);
+                    crc.update(chunk, 0, n);
+                }
+            }
+        } finally {
+            in.close();
+        }
+        return (int) crc.getValue();
+    }
+
+    public static void write(TestMappings tm, File snapshot, File source) throws IOException {
+
+        // string table: the header strings and every distinct href prefix
+        List<String> strings = new ArrayList<String>();
+        Map<String, Integer> index = new HashMap<String, Integer>();
+        intern(tm.getIso(), strings, index);
+        intern(tm.getName(), strings, index);
+        intern(tm.getSymbol(), strings, index);
+        intern((null == tm.getSubUnit()) ? null : tm.getSubUnit().getName(), strings, index);
+
+        List<?> links = (null == tm.getLinks()) ? null : tm.getLinks().getLinkItemList();
+        if (null != links) {
+            for (Object o : links) {
+                intern(prefix(((LinkItem) o).getHref()), strings, index);
+            }
+        }
+
+        File tmp = new File(snapshot.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), IO_BUFFER_SIZE));
+        try {
+            out.writeInt(MAGIC);
+            out.writeShort(VERSION);
+            out.writeLong(source.lastModified());
+            out.writeLong(source.length());
+            out.writeInt(checksum(source));
+
+            writeVarint(out, strings.size());
+            for (String s : strings) {
+                writeBytes(out, s.getBytes("UTF-8"));
+            }
+
+            writeVarint(out, ref(tm.getIso(), index));
+            writeVarint(out, ref(tm.getName(), index));
+            writeVarint(out, ref(tm.getSymbol(), index));
+            writeVarint(out, ref((null == tm.getSubUnit()) ? null : tm.getSubUnit().getName(), index));
+
+            if (null == links) {
+                writeVarint(out, 0);
+            } else {
+                writeVarint(out, links.size() + 1);
+                for (Object o : links) {
+                    String href = ((LinkItem) o).getHref();
+                    String prefix = prefix(href);
+                    writeVarint(out, ref(prefix, index));
+                    if (null == href) {
+                        writeVarint(out, 0);
+                    } else {
+                        byte[] suffix = href.substring(prefix.length()).getBytes("UTF-8");
+                        writeVarint(out, suffix.length + 1);
+                        out.write(suffix);
+                    }
+                }
+            }
+        } finally {
+            out.close();
+        }
+
+        // replace the old snapshot only once the new one is complete
+        if (!tmp.renameTo(snapshot)) {
+            snapshot.delete();
+            if (!tmp.renameTo(snapshot)) {
+                throw new IOException("Unable to write snapshot " + snapshot);
+            }
+        }
+    }
+
+    /**
+     * Maps the snapshot and decodes its TestMappings (the source it was
+     * taken from is not checked - see isCurrent()); a snapshot is mapped
+     * whole, so it can be at most MAX_SNAPSHOT_SIZE bytes
+     */
+    public static TestMappings read(File snapshot) throws IOException {
+
+        FileInputStream in = new FileInputStream(snapshot);
+        try {
+            FileChannel channel = in.getChannel();
+            if (channel.size() > MAX_SNAPSHOT_SIZE) {
+                throw new IOException("Snapshot larger than " + MAX_SNAPSHOT_SIZE + " bytes: " + snapshot);
+            }
+            MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+            if (buf.getInt() != MAGIC || buf.getShort() != VERSION) {
+                throw new IOException("Not a version " + VERSION + " TestMappings snapshot: " + snapshot);
+            }
+            buf.position(HEADER_SIZE);     // past the source timestamp, length, CRC32
+
+            byte[] scratch = new byte[256];
+            String[] strings = new String[readVarint(buf)];
+            for (int i=0; i<strings.length; i++) {
+                int length = readVarint(buf);
+                scratch = (scratch.length < length) ? new byte[length] : scratch;
+                buf.get(scratch, 0, length);
+                strings[i] = new String(scratch, 0, length, "UTF-8");
+            }
+
+            TestMappings tm = new TestMappings();
+            tm.setIso(string(strings, readVarint(buf)));
+            tm.setName(string(strings, readVarint(buf)));
+            tm.setSymbol(string(strings, readVarint(buf)));
+            String subUnitName = string(strings, readVarint(buf));
+            if (null != subUnitName) {
+                SubUnit su = new SubUnit();
+                su.setName(subUnitName);
+                tm.setSubUnit(su);
+            }
+
+            int count = readVarint(buf) - 1;
+            if (count >= 0) {
+                List<LinkItem> linkItems = new ArrayList<LinkItem>(count);
+                for (int i=0; i<count; i++) {
+                    String prefix = string(strings, readVarint(buf));
+                    int length = readVarint(buf) - 1;
+
+                    LinkItem link = new LinkItem();
+                    if (length >= 0) {
+                        scratch = (scratch.length < length) ? new byte[length] : scratch;
+                        buf.get(scratch, 0, length);
+                        link.setHref(prefix.concat(new String(scratch, 0, length, "UTF-8")));
+                    }
+                    linkItems.add(link);
+                }
+                Links links = new Links();
+                links.setLinkItemList(linkItems);
+                tm.setLinks(links);
+            }
+            return tm;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * href up to and including its last '/' ("" for none)
+     */
+    static String prefix(String href) {
+        if (null == href) {
+            return "";
+        }
+        return href.substring(0, href.lastIndexOf('/') + 1);
+    }
+
+    static void intern(String s, List<String> strings, Map<String, Integer> index) {
+        if (null != s && !index.containsKey(s)) {
+            index.put(s, strings.size());
+            strings.add(s);
+        }
+    }
+
+    static int ref(String s, Map<String, Integer> index) {
+        return (null == s) ? 0 : index.get(s).intValue() + 1;
+    }
+
+    static String string(String[] strings, int ref) {
+        return (ref == 0) ? null : strings[ref - 1];
+    }
+
+    static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        writeVarint(out, bytes.length);
+        out.write(bytes);
+    }
+
+    static void writeVarint(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7f) != 0) {
+            out.write((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    static int readVarint(ByteBuffer buf) {
+        int value = 0;
+        for (int shift=0; ; shift+=7) {
+            byte b = buf.get();
+            value |= (b & 0x7f) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+    }
+
+
+    public static void main(String[] argv) throws IOException {
+
+        if (argv.length < 1) {
+            System.out.println("***** Usage *****\n" + TestMappingsSnapshot.class.getName() + " <pathname of XML file>");
+            System.exit(-1);
+        }
+
+        File source = new File(argv[0]);
+        boolean current = isCurrent(snapshotFile(source), source);
+        long start = System.nanoTime();
+        TestMappings tm = load(source);
+        System.out.println(String.format("%s %s in %.2f ms: %s (%d links)", current ? "read snapshot" : "parsed and saved snapshot",
+                                         snapshotFile(source), (System.nanoTime() - start) / 1e6, tm.getIso(),
+                                         (null == tm.getLinks()) ? 0 : tm.getLinks().getLinkItemList().size()));
+    }
+
+}
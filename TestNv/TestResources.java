@@ -0,0 +1,119 @@
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.support.ClassPathXmlApplicationContext;
+
+
+/**
+ * TestResources
+ *
+ * The parsers and marshaller of the TestNv pipeline, created once per
+ * process (or once per thread) instead of once per file:
+ *
+ * - the Spring context (testContext.xml), started on first use and shared;
+ *   the CastorMarshaller it configures is thread safe once initialized
+ * - a DocumentBuilder, an XMLInputFactory, an XMLOutputFactory and a
+ *   TestSpringMarshaller per thread, as none of them may be used by two
+ *   threads at once (a DocumentBuilder is reset() before each reuse)
+ */
+public class TestResources {
+
+    /** StAX property reporting CDATA sections apart from text (JDK parser) */
+    static final String REPORT_CDATA = "http://java.sun.com/xml/stream/properties/report-cdata-event";
+
+    static final String CONTEXT_FILE = "testContext.xml";
+
+    private static final DocumentBuilderFactory docFactory = DocumentBuilderFactory.newInstance();
+
+    private static volatile ApplicationContext context = null;
+
+    private static final ThreadLocal<DocumentBuilder> documentBuilders = new ThreadLocal<DocumentBuilder>();
+
+    private static final ThreadLocal<XMLInputFactory> inputFactories = new ThreadLocal<XMLInputFactory>() {
+        protected XMLInputFactory initialValue() {
+            XMLInputFactory factory = XMLInputFactory.newInstance();
+            // report CDATA sections apart from text, as the DOM does
+            if (factory.isPropertySupported(REPORT_CDATA)) {
+                factory.setProperty(REPORT_CDATA, Boolean.TRUE);
+            }
+            return factory;
+        }
+    };
+
+    private static final ThreadLocal<XMLOutputFactory> outputFactories = new ThreadLocal<XMLOutputFactory>() {
+        protected XMLOutputFactory initialValue() {
+            return XMLOutputFactory.newInstance();
+        }
+    };
+
+    private static final ThreadLocal<TestSpringMarshaller> marshallers = new ThreadLocal<TestSpringMarshaller>();
+
+
+    private TestResources() {}
+
+    /**
+     * This thread's DocumentBuilder, reset for the next document
+     */
+    public static DocumentBuilder getDocumentBuilder() throws ParserConfigurationException {
+        DocumentBuilder builder = documentBuilders.get();
+        if (null == builder) {
+            // the factory itself is not thread safe
+            synchronized (docFactory) {
+                builder = docFactory.newDocumentBuilder();
+            }
+            documentBuilders.set(builder);
+        } else {
+            builder.reset();
+        }
+        return builder;
+    }
+
+    public static XMLInputFactory getInputFactory() {
+        return inputFactories.get();
+    }
+
+    public static XMLOutputFactory getOutputFactory() {
+        return outputFactories.get();
+    }
+
+    /**
+     * The Spring context of testContext.xml, started on the first call
+     */
+    public static ApplicationContext getApplicationContext() {
+        ApplicationContext ctx = context;
+        if (null == ctx) {
+            synchronized (TestResources.class) {
+                ctx = context;
+                if (null == ctx) {
+                    ctx = new ClassPathXmlApplicationContext(CONTEXT_FILE);
+                    context = ctx;
+                }
+            }
+        }
+        return ctx;
+    }
+
+    /**
+     * This thread's TestSpringMarshaller: a copy of the context's "test"
+     * bean sharing its CastorMarshaller, so threads do not overwrite each
+     * other's write object; the filename and write object are reset to the
+     * bean's on each call
+     */
+    public static TestSpringMarshaller getMarshaller() {
+        TestSpringMarshaller bean = (TestSpringMarshaller) getApplicationContext().getBean("test");
+        TestSpringMarshaller marshaller = marshallers.get();
+        if (null == marshaller) {
+            marshaller = new TestSpringMarshaller();
+            marshaller.setMarshaller(bean.getMarshaller());
+            marshallers.set(marshaller);
+        }
+        marshaller.setFilename(bean.getFilename());
+        marshaller.setWriteObject(null);
+        return marshaller;
+    }
+
+}
@@ -1,7 +1,23 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
 import javax.xml.transform.dom.DOMResult;
+import javax.xml.transform.stream.StreamSource;
 import javax.xml.transform.stream.StreamResult;
 
 import org.springframework.context.ApplicationContext;
@@ -10,10 +26,34 @@ import org.springframework.oxm.Marshaller;
 import org.springframework.oxm.castor.CastorMarshaller;
 
 //import org.exolab.castor.xml.Marshaller;
+import org.w3c.dom.Attr;
 import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
 
+/**
+ * TestSpringMarshaller
+ *
+ * Writes the write object (by default a TestMappings built by
+ * buildDocWriteObject()) to filename with the Castor marshaller, or into a
+ * DOM document.
+ *
+ * For link lists too big to build as one object graph, openLinkWriter() and
+ * writeLinksToXML() stream a TestMappings and its LinkItems one at a time
+ * through a buffered XMLStreamWriter, so the heap used does not grow with
+ * the number of links.  The XML around the links, and the XML of each link,
+ * is what the Castor marshaller (and its mapping) gives a TestMappings with
+ * the header and a single marker link; readHeaderFromXML() reads a header
+ * back the same way, from a copy of the file without its links.
+ */
 public class TestSpringMarshaller {
 
+    /** href of the marker link of an envelope */
+    static final String LINK_MARKER = "urn:TestSpringMarshaller:link";
+
+    static final int OUTPUT_BUFFER_SIZE = 64 * 1024;
+
     String filename = new String("testOutput.xml");
     CastorMarshaller marshaller;
     Object writeObject = null;
@@ -21,6 +61,14 @@ public class TestSpringMarshaller {
     public TestSpringMarshaller() {
     }
 
+    public void setFilename(String filename) {
+        this.filename = filename;
+    }
+
+    public String getFilename() {
+        return filename;
+    }
+
     public void setMarshaller(CastorMarshaller marshaller) {
         this.marshaller = marshaller;
     }
@@ -66,11 +114,21 @@ public class TestSpringMarshaller {
         return (Object)tm;
     }
 
+    /**
+     * Marshals the write object straight into doc: as its document element
+     * if it has none, else appended to the document element
+     */
     public void writeObjToXML(Document doc) {
-        DOMResult domResult = new DOMResult(doc);
-        //marshaller.setResult(domResult);
+        if (null == writeObject) {
+            writeObject = buildDocWriteObject();
+        }
 
-        writeObjToXML();
+        try {
+            Node parent = (null == doc.getDocumentElement()) ? (Node) doc : (Node) doc.getDocumentElement();
+            marshaller.marshal(writeObject, new DOMResult(parent));
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
     }
 
     public void writeObjToXML() {
@@ -81,7 +139,9 @@ public class TestSpringMarshaller {
 
         try {
             fos = new FileOutputStream(filename);
-            marshaller.marshal(writeObject, new StreamResult(fos));
+            BufferedOutputStream out = new BufferedOutputStream(fos, OUTPUT_BUFFER_SIZE);
+            marshaller.marshal(writeObject, new StreamResult(out));
+            out.flush();
         } catch (IOException ie) {
             ie.printStackTrace();
         } catch (Exception e) {
@@ -97,9 +157,336 @@ public class TestSpringMarshaller {
         }
     }
 
+    /**
+     * Unmarshals the TestMappings of an XML file with the Castor marshaller
+     */
+    public TestMappings readObjFromXML(File source) throws IOException {
+        InputStream in = new BufferedInputStream(new FileInputStream(source), OUTPUT_BUFFER_SIZE);
+        try {
+            return (TestMappings) marshaller.unmarshal(new StreamSource(in));
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Unmarshals the header of a TestMappings file - iso, name, symbol and
+     * sub-unit - without its links, or null when source is not a
+     * TestMappings document
+     */
+    public TestMappings readHeaderFromXML(File source) throws Exception {
+
+        List<Node> envelope = envelope(null);
+        Node root = envelope.get(0);
+        Node item = envelope.get(envelope.size() - 1);
+
+        ByteArrayOutputStream copy = new ByteArrayOutputStream();
+        InputStream in = new BufferedInputStream(new FileInputStream(source), OUTPUT_BUFFER_SIZE);
+        try {
+            XMLStreamReader reader = TestResources.getInputFactory().createXMLStreamReader(in);
+            XMLStreamWriter writer = TestResources.getOutputFactory().createXMLStreamWriter(copy, "UTF-8");
+            try {
+                writer.writeStartDocument("UTF-8", "1.0");
+                // depth inside a link item being left out (0: none)
+                int skip = 0;
+                boolean atRoot = true;
+                while (reader.hasNext()) {
+                    switch (reader.next()) {
+                    case XMLStreamConstants.START_ELEMENT:
+                        if (atRoot && !isNamed(reader, root)) {
+                            return null;
+                        }
+                        atRoot = false;
+                        if (skip > 0 || isNamed(reader, item)) {
+                            skip++;
+                        } else {
+                            copyStartElement(reader, writer);
+                        }
+                        break;
+                    case XMLStreamConstants.END_ELEMENT:
+                        if (skip > 0) {
+                            skip--;
+                        } else {
+                            writer.writeEndElement();
+                        }
+                        break;
+                    case XMLStreamConstants.CHARACTERS:
+                    case XMLStreamConstants.CDATA:
+                    case XMLStreamConstants.SPACE:
+                        if (skip == 0 && !atRoot) {
+                            writer.writeCharacters(reader.getText());
+                        }
+                        break;
+                    }
+                }
+                writer.writeEndDocument();
+            } finally {
+                writer.close();
+                reader.close();
+            }
+        } finally {
+            in.close();
+        }
+
+        return (TestMappings) marshaller.unmarshal(new StreamSource(new ByteArrayInputStream(copy.toByteArray())));
+    }
+
+    static boolean isNamed(XMLStreamReader reader, Node node) {
+        return localName(node).equals(reader.getLocalName())
+            && namespace(node.getNamespaceURI()).equals(namespace(reader.getNamespaceURI()));
+    }
+
+    static void copyStartElement(XMLStreamReader reader, XMLStreamWriter writer) throws XMLStreamException {
+        writer.writeStartElement(prefix(reader.getPrefix()), reader.getLocalName(), namespace(reader.getNamespaceURI()));
+        for (int i=0; i<reader.getNamespaceCount(); i++) {
+            writer.writeNamespace(prefix(reader.getNamespacePrefix(i)), namespace(reader.getNamespaceURI(i)));
+        }
+        for (int i=0; i<reader.getAttributeCount(); i++) {
+            writer.writeAttribute(prefix(reader.getAttributePrefix(i)), namespace(reader.getAttributeNamespace(i)),
+                                  reader.getAttributeLocalName(i), reader.getAttributeValue(i));
+        }
+    }
+
+    /**
+     * The marshaller's XML of a TestMappings with header's iso, name, symbol
+     * and sub-unit and one marker link: the path from its document element
+     * down to the marker link's element
+     */
+    List<Node> envelope(TestMappings header) throws Exception {
+
+        TestMappings tm = new TestMappings();
+        if (null != header) {
+            tm.setIso(header.getIso());
+            tm.setName(header.getName());
+            tm.setSymbol(header.getSymbol());
+            tm.setSubUnit(header.getSubUnit());
+        }
+        LinkItem marker = new LinkItem();
+        marker.setHref(LINK_MARKER);
+        List<LinkItem> linkItems = new ArrayList<LinkItem>();
+        linkItems.add(marker);
+        Links links = new Links();
+        links.setLinkItemList(linkItems);
+        tm.setLinks(links);
+
+        Document doc = TestResources.getDocumentBuilder().newDocument();
+        marshaller.marshal(tm, new DOMResult(doc));
+
+        Node item = findMarker(doc.getDocumentElement());
+        if (null == item) {
+            throw new IOException("No link in the marshalled " + TestMappings.class.getName());
+        }
+        List<Node> path = new ArrayList<Node>();
+        for (Node n = item; n != doc; n = n.getParentNode()) {
+            path.add(0, n);
+        }
+        return path;
+    }
+
+    /**
+     * The element holding the marker href, as an attribute or as its text
+     */
+    static Node findMarker(Node node) {
+        if (node.getNodeType() != Node.ELEMENT_NODE) {
+            return null;
+        }
+        NamedNodeMap attributes = node.getAttributes();
+        for (int i=0; i<attributes.getLength(); i++) {
+            if (LINK_MARKER.equals(attributes.item(i).getNodeValue())) {
+                return node;
+            }
+        }
+        for (Node c = node.getFirstChild(); null != c; c = c.getNextSibling()) {
+            if (c.getNodeType() == Node.TEXT_NODE && LINK_MARKER.equals(c.getNodeValue())) {
+                return node;
+            }
+            Node found = findMarker(c);
+            if (null != found) {
+                return found;
+            }
+        }
+        return null;
+    }
+
+    static String localName(Node node) {
+        return (null == node.getLocalName()) ? node.getNodeName() : node.getLocalName();
+    }
+
+    static String prefix(String prefix) {
+        return (null == prefix) ? "" : prefix;
+    }
+
+    static String namespace(String uri) {
+        return (null == uri) ? "" : uri;
+    }
+
+    /**
+     * Streams header (may be null) and the items to filename
+     */
+    public void writeLinksToXML(TestMappings header, Iterator<LinkItem> items) {
+        LinkWriter writer = null;
+        try {
+            writer = openLinkWriter(header);
+            while (items.hasNext()) {
+                writer.write(items.next());
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        } finally {
+            if (null != writer) {
+                try {
+                    writer.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    /**
+     * Opens filename and writes the marshaller's XML of header (may be null)
+     * up to its links
+     */
+    public LinkWriter openLinkWriter(TestMappings header) throws Exception {
+        List<Node> envelope = envelope(header);
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(filename), OUTPUT_BUFFER_SIZE);
+        try {
+            return new LinkWriter(out, envelope);
+        } catch (XMLStreamException e) {
+            out.close();
+            throw e;
+        }
+    }
+
+    /**
+     * LinkWriter: one streamed write, link by link, each written as the
+     * envelope's marker link with its href; close() writes the rest of the
+     * envelope and ends the file
+     */
+    public static class LinkWriter implements Closeable {
+
+        final OutputStream out;
+        final XMLStreamWriter writer;
+        /** document element .. marker link element */
+        final List<Node> path;
+        final Node item;
+
+        LinkWriter(OutputStream out, List<Node> path) throws XMLStreamException {
+            this.out = out;
+            this.writer = TestResources.getOutputFactory().createXMLStreamWriter(out, "UTF-8");
+            this.path = path;
+            this.item = path.get(path.size() - 1);
+
+            writer.writeStartDocument("UTF-8", "1.0");
+            for (int i=0; i<path.size()-1; i++) {
+                Node parent = path.get(i);
+                writeStartElement((Element) parent, null, false);
+                for (Node c = parent.getFirstChild(); c != path.get(i + 1); c = c.getNextSibling()) {
+                    writeNode(c, null);
+                }
+            }
+        }
+
+        public void write(LinkItem link) throws IOException {
+            try {
+                writeNode(item, link);
+            } catch (XMLStreamException e) {
+                throw new IOException(e.getMessage(), e);
+            }
+        }
+
+        /**
+         * Writes node and its children; in the marker link (link not null)
+         * the marker is replaced by link's href, or left out when it is null
+         */
+        void writeNode(Node node, LinkItem link) throws XMLStreamException {
+            switch (node.getNodeType()) {
+            case Node.ELEMENT_NODE:
+                Element e = (Element) node;
+                if (!e.hasChildNodes()) {
+                    writeStartElement(e, link, true);
+                    break;
+                }
+                writeStartElement(e, link, false);
+                for (Node c = e.getFirstChild(); null != c; c = c.getNextSibling()) {
+                    writeNode(c, link);
+                }
+                writer.writeEndElement();
+                break;
+            case Node.TEXT_NODE:
+            case Node.CDATA_SECTION_NODE:
+                String text = value(node.getNodeValue(), link);
+                if (null != text) {
+                    writer.writeCharacters(text);
+                }
+                break;
+            }
+        }
+
+        void writeStartElement(Element e, LinkItem link, boolean empty) throws XMLStreamException {
+
+            String ns = namespace(e.getNamespaceURI());
+            String prefix = prefix(e.getPrefix());
+            if (empty) {
+                writer.writeEmptyElement(prefix, localName(e), ns);
+            } else {
+                writer.writeStartElement(prefix, localName(e), ns);
+            }
+
+            NamedNodeMap attributes = e.getAttributes();
+            for (int i=0; i<attributes.getLength(); i++) {
+                Attr a = (Attr) attributes.item(i);
+                if ("xmlns".equals(a.getName())) {
+                    writer.writeDefaultNamespace(a.getValue());
+                } else if ("xmlns".equals(a.getPrefix())) {
+                    writer.writeNamespace(a.getLocalName(), a.getValue());
+                }
+            }
+            if (!ns.equals(namespace(writer.getNamespaceContext().getNamespaceURI(prefix)))) {
+                writer.writeNamespace(prefix, ns);
+            }
+
+            for (int i=0; i<attributes.getLength(); i++) {
+                Attr a = (Attr) attributes.item(i);
+                if ("xmlns".equals(a.getName()) || "xmlns".equals(a.getPrefix())) {
+                    continue;
+                }
+                String value = value(a.getValue(), link);
+                if (null != value) {
+                    writer.writeAttribute(prefix(a.getPrefix()), namespace(a.getNamespaceURI()), localName(a), value);
+                }
+            }
+        }
+
+        static String value(String value, LinkItem link) {
+            return (null != link && LINK_MARKER.equals(value)) ? link.getHref() : value;
+        }
+
+        /**
+         * Ends the envelope and the file, throwing when the file could not
+         * be completed
+         */
+        public void close() throws IOException {
+            try {
+                for (int i=path.size()-2; i>=0; i--) {
+                    for (Node c = path.get(i + 1).getNextSibling(); null != c; c = c.getNextSibling()) {
+                        writeNode(c, null);
+                    }
+                    writer.writeEndElement();
+                }
+                writer.writeEndDocument();
+                writer.close();
+            } catch (XMLStreamException e) {
+                throw new IOException(e.getMessage(), e);
+            } finally {
+                out.close();
+            }
+        }
+    }
+
     public static void main(String[] argv) throws IOException {
 
-        ApplicationContext testContext = new ClassPathXmlApplicationContext("testContext.xml");
+        ApplicationContext testContext = TestResources.getApplicationContext();
         TestSpringMarshaller testMarshaller = (TestSpringMarshaller) testContext.getBean("castorMarshaller");
         testMarshaller.writeObjToXML();
     }
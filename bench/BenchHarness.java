@@ -0,0 +1,106 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * BenchHarness
+ *
+ * Compares a run of the JMH benchmarks against a baseline run, from the CSV
+ * result files of the two (-rf csv -rff file, see bench/pom.xml): each
+ * score, the -prof gc rows (gc.alloc.rate.norm is B/op) included, with
+ * its change against the baseline.
+ *
+ *     java -cp benchmarks.jar BenchHarness baseline.csv results.csv
+ */
+public class BenchHarness {
+
+    static double percent(double value, double base) {
+        return (base == 0) ? 0 : 100 * (value - base) / base;
+    }
+
+    /**
+     * The rows of a JMH CSV result file, keyed by benchmark and parameters:
+     * score and unit
+     */
+    static Map<String, String[]> readJmhCsv(File f) throws IOException {
+
+        Map<String, String[]> rows = new LinkedHashMap<String, String[]>();
+        BufferedReader in = new BufferedReader(new FileReader(f));
+        try {
+            List<String> header = csvFields(in.readLine());
+            int score = header.indexOf("Score");
+            int unit = header.indexOf("Unit");
+            String line;
+            while (null != (line = in.readLine())) {
+                List<String> fields = csvFields(line);
+                if (fields.size() < header.size()) {
+                    continue;
+                }
+                StringBuilder key = new StringBuilder(fields.get(0));
+                for (int i=unit+1; i<fields.size(); i++) {
+                    if (fields.get(i).length() > 0) {
+                        key.append(' ').append(header.get(i).replace("Param: ", "")).append('=').append(fields.get(i));
+                    }
+                }
+                rows.put(key.toString(), new String[] { fields.get(score), fields.get(unit) });
+            }
+        } finally {
+            in.close();
+        }
+        return rows;
+    }
+
+    static List<String> csvFields(String line) {
+        List<String> fields = new ArrayList<String>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i=0; i<line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '"') {
+                if (quoted && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append(c);
+                    i++;
+                } else {
+                    quoted = !quoted;
+                }
+            } else if (c == ',' && !quoted) {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+
+    /**
+     * Compares a JMH run (its -rf csv results, -prof gc rows included)
+     * against a baseline run
+     */
+    public static void main(String[] argv) throws IOException {
+
+        if (argv.length < 2) {
+            System.out.println("***** Usage *****\n" + BenchHarness.class.getName() + " <baseline JMH csv> <results JMH csv>");
+            System.exit(-1);
+        }
+
+        Map<String, String[]> baseline = readJmhCsv(new File(argv[0]));
+        Map<String, String[]> results = readJmhCsv(new File(argv[1]));
+        for (Map.Entry<String, String[]> e : results.entrySet()) {
+            String[] result = e.getValue();
+            String[] base = baseline.get(e.getKey());
+            String vs = "";
+            if (null != base && base[1].equals(result[1])) {
+                vs = String.format("%+6.1f%%", percent(Double.parseDouble(result[0]), Double.parseDouble(base[0])));
+            }
+            System.out.println(String.format("%-88s %16s %-8s %s", e.getKey(), result[0], result[1], vs));
+        }
+    }
+}
@@ -0,0 +1,145 @@
+import java.io.File;
+
+import benchmarks.Playground;
+
+
+/**
+ * PlaygroundBench
+ *
+ * The playground behind the JMH benchmarks in benchmarks/ (see
+ * bench/pom.xml): their inputs, from GalacticBench, FindSymmetricalBench
+ * and TestBench, the hot paths they measure, and these whole workloads,
+ * on generated input that is the same on every run:
+ *
+ *     galactic.processFile.buffered  processFile() over a transaction file
+ *     galactic.processFile.mapped    of the given number of lines, read
+ *                                    through a BufferedReader or the
+ *                                    MappedLineReader
+ *     xml.loadXML.dom                Test.loadXML() through the DOM,
+ *     xml.loadXML.stax               loadXMLStream() through StAX, and
+ *     xml.sortLinks                  sortLinks(), on a link feed of the
+ *                                    given number of links
+ */
+public class PlaygroundBench implements Playground {
+
+    public String[] galacticLines() {
+        return GalacticBench.SAMPLE_LINES.clone();
+    }
+
+    public String[] romanNumerals() {
+        return GalacticBench.SAMPLE_NUMERALS.clone();
+    }
+
+    public int[] romanSymbols(String numeral) {
+        return GalacticBench.romanSymbols(numeral);
+    }
+
+    public int classifyLine(String line) {
+        return Galactic.classifyLine(line);
+    }
+
+    public int legacyClassifyLine(String line) {
+        return GalacticBench.legacyClassifyLine(line);
+    }
+
+    public int decodeRoman(int[] symbols, int len) {
+        return Galactic.decodeRoman(symbols, len);
+    }
+
+    public int legacyDecodeRoman(String numeral) {
+        return GalacticBench.legacyDecodeRoman(numeral);
+    }
+
+    public StringBuilder appendCredits(StringBuilder sb, long numUnits, long credits, int units) {
+        return Galactic.appendCredits(sb, numUnits, credits, units);
+    }
+
+    public String legacyCredits(long numUnits, long credits, int units) {
+        return GalacticBench.legacyCredits(numUnits, credits, units);
+    }
+
+    public String symmetricalText(String layout, int size) {
+        if ("best".equals(layout)) {
+            return FindSymmetricalBench.best(size);
+        }
+        if ("worst".equals(layout)) {
+            return FindSymmetricalBench.worst(size);
+        }
+        throw new IllegalArgumentException("Unknown layout " + layout);
+    }
+
+    public int atIndex(String text) {
+        return FindSymmetrical.atIndex(text);
+    }
+
+    public int legacyAtIndex(String text) {
+        return FindSymmetricalBench.legacyAtIndex(text);
+    }
+
+    public int[] radii(String text) {
+        return FindSymmetrical.radii(text);
+    }
+
+    public Workload open(String workload, int size) throws Exception {
+
+        if (workload.startsWith("galactic.")) {
+            return new Opened(workload, size, GalacticBench.writeTransactionFile(size));
+        }
+        if (workload.startsWith("xml.")) {
+            return new Opened(workload, size, TestBench.writeFeed(size));
+        }
+        throw new IllegalArgumentException("Unknown workload " + workload);
+    }
+
+    /**
+     * Opened: a workload and its input file
+     */
+    static final class Opened implements Workload {
+
+        final String workload;
+        final long ops;
+        final File file;
+
+        Object sink;
+
+        Opened(String workload, long ops, File file) {
+            this.workload = workload;
+            this.ops = ops;
+            this.file = file;
+        }
+
+        public long run() throws Exception {
+
+            if ("galactic.processFile.buffered".equals(workload)) {
+                GalacticBench.processFile(file, false);
+            } else if ("galactic.processFile.mapped".equals(workload)) {
+                GalacticBench.processFile(file, true);
+            } else if ("xml.loadXML.dom".equals(workload)) {
+                Test t = new Test();
+                t.setFilename(file.getPath());
+                t.loadXML();
+                sink = t.doc;
+            } else if ("xml.loadXML.stax".equals(workload)) {
+                Test t = new Test();
+                t.setFilename(file.getPath());
+                t.loadXMLStream(t.getTagName());
+                sink = t.getElements();
+            } else if ("xml.sortLinks".equals(workload)) {
+                Test t = new Test();
+                t.setFilename(file.getPath());
+                t.sortLinks();
+                // nothing writes the links out: delete their spilled runs
+                try (LinkSorter sorted = t.getSortedLinks()) {
+                    sink = sorted;
+                }
+            } else {
+                throw new IllegalArgumentException("Unknown workload " + workload);
+            }
+            return ops;
+        }
+
+        public void close() {
+            file.delete();
+        }
+    }
+}
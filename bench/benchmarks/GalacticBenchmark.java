@@ -0,0 +1,33 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+
+
+/**
+ * Galactic processFile() over generated transaction files, read through a
+ * BufferedReader or the MappedLineReader (10^8 lines, ~3 GB:
+ * -p lines=100000000; answered by several workers: -jvmArgsAppend
+ * -Dworkers=4)
+ */
+public class GalacticBenchmark extends PlaygroundWorkload {
+
+    @Param({ "buffered", "mapped" })
+    public String reader;
+
+    @Param({ "1000", "10000", "100000", "1000000" })
+    public int lines;
+
+    String workload() {
+        return "galactic.processFile." + reader;
+    }
+
+    int size() {
+        return lines;
+    }
+
+    @Benchmark
+    public long processFile() throws Exception {
+        return run();
+    }
+}
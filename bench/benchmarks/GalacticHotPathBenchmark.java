@@ -0,0 +1,91 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+
+/**
+ * The Galactic hot paths - classifyLine(), decodeRoman() and
+ * appendCredits() - each next to the version it replaced (*Legacy).
+ *
+ * An operation of classifyLine is the whole set of sample lines, and of
+ * decodeRoman the whole set of sample numerals; appendCredits prices one
+ * number of units at 57800 Credits for 4 units.
+ */
+@State(Scope.Thread)
+public class GalacticHotPathBenchmark extends PlaygroundBenchmark {
+
+    String[] lines;
+    String[] numerals;
+    int[][] symbols;
+
+    @Setup
+    public void samples() {
+        lines = PLAYGROUND.galacticLines();
+        numerals = PLAYGROUND.romanNumerals();
+        symbols = new int[numerals.length][];
+        for (int i=0; i<numerals.length; i++) {
+            symbols[i] = PLAYGROUND.romanSymbols(numerals[i]);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Credits {
+
+        /** 42 is priced in long arithmetic, 10^14 in BigInteger */
+        @Param({ "42", "100000000000000" })
+        public long numUnits;
+
+        final StringBuilder sb = new StringBuilder();
+    }
+
+    @Benchmark
+    public int classifyLine() {
+        int acc = 0;
+        for (String line : lines) {
+            acc += PLAYGROUND.classifyLine(line);
+        }
+        return acc;
+    }
+
+    @Benchmark
+    public int classifyLineLegacy() {
+        int acc = 0;
+        for (String line : lines) {
+            acc += PLAYGROUND.legacyClassifyLine(line);
+        }
+        return acc;
+    }
+
+    @Benchmark
+    public int decodeRoman() {
+        int acc = 0;
+        for (int[] s : symbols) {
+            acc += PLAYGROUND.decodeRoman(s, s.length);
+        }
+        return acc;
+    }
+
+    @Benchmark
+    public int decodeRomanLegacy() {
+        int acc = 0;
+        for (String numeral : numerals) {
+            acc += PLAYGROUND.legacyDecodeRoman(numeral);
+        }
+        return acc;
+    }
+
+    @Benchmark
+    public StringBuilder appendCredits(Credits c) {
+        c.sb.setLength(0);
+        return PLAYGROUND.appendCredits(c.sb, c.numUnits, 57800L, 4);
+    }
+
+    @Benchmark
+    public String appendCreditsLegacy(Credits c) {
+        return PLAYGROUND.legacyCredits(c.numUnits, 57800L, 4);
+    }
+}
@@ -0,0 +1,61 @@
+package benchmarks;
+
+import java.io.Closeable;
+
+
+/**
+ * Playground
+ *
+ * The playground as the benchmarks see it.  Its classes are in the default
+ * package, which a class in a package cannot name, and JMH does not take
+ * benchmarks in the default package; so the benchmarks call it through
+ * this interface, implemented by PlaygroundBench, which is looked up by
+ * name once (PlaygroundBenchmark.PLAYGROUND).
+ */
+public interface Playground {
+
+    /**
+     * A whole workload on its generated input; close() deletes the input
+     */
+    interface Workload extends Closeable {
+
+        /** One run over the whole input, returning what it read (lines, links) */
+        long run() throws Exception;
+    }
+
+    /** Galactic's sample lines, specifications and questions */
+    String[] galacticLines();
+
+    /** Roman numerals, valid ones */
+    String[] romanNumerals();
+
+    /** The symbol values of a numeral, as decodeRoman() takes them */
+    int[] romanSymbols(String numeral);
+
+    int classifyLine(String line);
+
+    int legacyClassifyLine(String line);
+
+    int decodeRoman(int[] symbols, int len);
+
+    int legacyDecodeRoman(String numeral);
+
+    StringBuilder appendCredits(StringBuilder sb, long numUnits, long credits, int units);
+
+    String legacyCredits(long numUnits, long credits, int units);
+
+    /** FindSymmetrical input of the given layout, best or worst, and size */
+    String symmetricalText(String layout, int size);
+
+    int atIndex(String text);
+
+    int legacyAtIndex(String text);
+
+    int[] radii(String text);
+
+    /**
+     * The named workload on a newly generated input of the given size
+     * (lines or links)
+     */
+    Workload open(String workload, int size) throws Exception;
+}
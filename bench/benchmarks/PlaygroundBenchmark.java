@@ -0,0 +1,37 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * PlaygroundBenchmark
+ *
+ * Base of the benchmarks: their JMH settings, and the playground they
+ * call.  PLAYGROUND is a constant and PlaygroundBench the only
+ * implementation of Playground, so the JIT inlines the calls through it
+ * and a hot path is measured as if it were called directly.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public abstract class PlaygroundBenchmark {
+
+    static final Playground PLAYGROUND = load();
+
+    static Playground load() {
+        try {
+            return (Playground) Class.forName("PlaygroundBench").getDeclaredConstructor().newInstance();
+        } catch (Exception e) {
+            throw new IllegalStateException("PlaygroundBench is not on the class path", e);
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package benchmarks;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+
+/**
+ * PlaygroundWorkload
+ *
+ * State of the whole workload benchmarks: one of the Playground workloads,
+ * by name, on its generated input, opened once per trial.
+ *
+ * An operation is one run of the workload over its whole input; the
+ * components' own output is discarded while it runs.
+ */
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public abstract class PlaygroundWorkload extends PlaygroundBenchmark {
+
+    Playground.Workload workload;
+    PrintStream stdout;
+
+    /** Name of the workload, e.g. galactic.processFile.mapped */
+    abstract String workload();
+
+    /** Input size: lines or links */
+    abstract int size();
+
+    @Setup(Level.Trial)
+    public void open() throws Exception {
+        workload = PLAYGROUND.open(workload(), size());
+        stdout = System.out;
+        System.setOut(new PrintStream(new OutputStream() {
+            public void write(int b) {
+            }
+            public void write(byte[] b, int off, int len) {
+            }
+        }));
+    }
+
+    @TearDown(Level.Trial)
+    public void close() throws IOException {
+        System.setOut(stdout);
+        workload.close();
+    }
+
+    long run() throws Exception {
+        return workload.run();
+    }
+}
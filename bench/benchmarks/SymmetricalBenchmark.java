@@ -0,0 +1,69 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+
+/**
+ * FindSymmetrical atIndex() and radii() on the best and worst case
+ * layouts, and atIndex as it was before the Manacher version (*Legacy),
+ * which is quadratic on the worst case and so only run up to 100 KB
+ */
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SymmetricalBenchmark extends PlaygroundBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Text {
+
+        @Param({ "best", "worst" })
+        public String layout;
+
+        @Param({ "1", "10", "100", "1000", "10000" })
+        public int kb;
+
+        String text;
+
+        @Setup
+        public void generate() {
+            text = PLAYGROUND.symmetricalText(layout, kb * 1024);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class LegacyText {
+
+        @Param({ "best", "worst" })
+        public String layout;
+
+        @Param({ "1", "10", "100" })
+        public int kb;
+
+        String text;
+
+        @Setup
+        public void generate() {
+            text = PLAYGROUND.symmetricalText(layout, kb * 1024);
+        }
+    }
+
+    @Benchmark
+    public int atIndex(Text t) {
+        return PLAYGROUND.atIndex(t.text);
+    }
+
+    @Benchmark
+    public int atIndexLegacy(LegacyText t) {
+        return PLAYGROUND.legacyAtIndex(t.text);
+    }
+
+    @Benchmark
+    public int[] radii(Text t) {
+        return PLAYGROUND.radii(t.text);
+    }
+}
@@ -0,0 +1,31 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+
+
+/**
+ * TestNv loadXML() through the DOM, loadXMLStream() through StAX, and
+ * sortLinks(), on generated link feeds
+ */
+public class XmlBenchmark extends PlaygroundWorkload {
+
+    @Param({ "loadXML.dom", "loadXML.stax", "sortLinks" })
+    public String method;
+
+    @Param({ "1000", "10000", "100000" })
+    public int links;
+
+    String workload() {
+        return "xml." + method;
+    }
+
+    int size() {
+        return links;
+    }
+
+    @Benchmark
+    public long xml() throws Exception {
+        return run();
+    }
+}
@@ -1,51 +1,499 @@
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
 public class FindSymmetrical {
 
+    /**
+     * Index (in S with its non-word characters removed) of the first
+     * character whose two neighbours are equal, i.e. the first center of a
+     * symmetric run of length 3 or more; 0 for a single character and -1
+     * when there is no such center.
+     */
     public static int atIndex(String S) {
-        
-        S = S.replaceAll("[\\W]+", "");
+        return atIndex((CharSequence) S);
+    }
+
+    public static int atIndex(CharSequence S) {
+
+        // A center of radius >= 1 only needs its two neighbours, so the
+        // word characters are filtered and checked in the same pass, keeping
+        // just the last two, and the scan stops at the first center
+        char prev2 = 0;
+        char prev1 = 0;
+        int len = 0;
+        for (int i=0; i<S.length(); i++) {
+            char c = S.charAt(i);
+            if (!isWord(c)) {
+                continue;
+            }
+            if (len >= 2 && c == prev2) {
+                return len - 1;
+            }
+            prev2 = prev1;
+            prev1 = c;
+            len++;
+        }
 
         // Returns 0 when length of given String is 1
-        if (S.length() == 1) {
+        if (len == 1) {
             return 0;
         }
+        return -1;
+    }
 
-        char[] chars = S.toCharArray();
+    /** Inputs shorter than this are searched sequentially by atIndexParallel() */
+    static final int PARALLEL_THRESHOLD = 1 << 16;
 
-        int minMatch;
-        boolean isProceed;
-        boolean isDone = false;
+    /** Segments per worker thread in atIndexParallel() */
+    static final int SEGMENTS_PER_WORKER = 4;
 
-        for (int i=0; i<S.length(); i++) {
+    private static ForkJoinPool defaultPool = null;
+
+    /**
+     * atIndex() on a fork/join pool with one worker per processor
+     */
+    public static int atIndexParallel(String S) {
+        return atIndexParallel(S, getDefaultPool());
+    }
+
+    static synchronized ForkJoinPool getDefaultPool() {
+        if (null == defaultPool) {
+            defaultPool = new ForkJoinPool();
+        }
+        return defaultPool;
+    }
+
+    /**
+     * atIndex() with the work split into segments searched on the pool - the
+     * same result as atIndex(), which is also what inputs shorter than
+     * PARALLEL_THRESHOLD get.
+     *
+     * Each segment counts its word characters and looks for its first center
+     * in one pass over S, without copying it.  A center of radius >= 1 only
+     * needs its two neighbours, so a segment overlaps the one before by the
+     * last two word characters in front of it.  The filtered index of a
+     * center is its index within the segment plus the word characters of all
+     * earlier segments; the lowest segment with a center wins, and segments
+     * after it stop early.
+     */
+    public static int atIndexParallel(String S, ForkJoinPool pool) {
+
+        if (S.length() < PARALLEL_THRESHOLD) {
+            return atIndex(S);
+        }
+
+        int segments = pool.getParallelism() * SEGMENTS_PER_WORKER;
+        int[] bounds = new int[segments + 1];
+        for (int i=0; i<=segments; i++) {
+            bounds[i] = (int) ((long) S.length() * i / segments);
+        }
+
+        int[] counts = new int[segments];
+        int[] centers = new int[segments];
+        AtomicInteger firstSegment = new AtomicInteger(Integer.MAX_VALUE);
+        pool.invoke(new SegmentTask(S, bounds, counts, centers, firstSegment, 0, segments));
+
+        int offset = 0;
+        for (int i=0; i<segments; i++) {
+            if (i == firstSegment.get()) {
+                return offset + centers[i];
+            }
+            offset += counts[i];
+        }
+
+        // Returns 0 when length of given String is 1
+        return (offset == 1) ? 0 : -1;
+    }
+
+    /**
+     * SegmentTask: searches the segments [from, to) of atIndexParallel(),
+     * split in halves down to single segments
+     */
+    static class SegmentTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        /** Segments check this often whether an earlier one found a center */
+        static final int CHECK_INTERVAL = 4096;
+
+        final String S;
+        final int[] bounds;
+        final int[] counts;
+        final int[] centers;
+        final AtomicInteger firstSegment;
+        final int from;
+        final int to;
 
-            minMatch = 0;
-            isProceed = false;
-            for (int j=i, m=i; ((j>0) && ((m+1) < S.length())); j--, m++) {
-                
-                if (((j == i) && (m == i)) || isProceed){
-                    if (chars[j-1] == chars[m+1]) {
-                        minMatch++;
-                        isProceed = true;
+        SegmentTask(String S, int[] bounds, int[] counts, int[] centers, AtomicInteger firstSegment, int from, int to) {
+            this.S = S;
+            this.bounds = bounds;
+            this.counts = counts;
+            this.centers = centers;
+            this.firstSegment = firstSegment;
+            this.from = from;
+            this.to = to;
+        }
+
+        protected void compute() {
+
+            if (to - from > 1) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new SegmentTask(S, bounds, counts, centers, firstSegment, from, mid),
+                          new SegmentTask(S, bounds, counts, centers, firstSegment, mid, to));
+                return;
+            }
+
+            String S = this.S;
+            int segment = from;
+            int start = bounds[segment];
+            int end = bounds[segment + 1];
+
+            // the overlap: the last two word characters before the segment
+            char prev2 = 0;
+            char prev1 = 0;
+            int seen = 0;
+            for (int i=start-1; i>=0 && seen<2; i--) {
+                char c = S.charAt(i);
+                if (isWord(c)) {
+                    if (seen == 0) {
+                        prev1 = c;
                     } else {
-                        isProceed = false;
+                        prev2 = c;
                     }
+                    seen++;
+                }
+            }
+
+            int count = 0;
+            for (int i=start; i<end; i++) {
+                if ((i & (CHECK_INTERVAL - 1)) == 0 && firstSegment.get() < segment) {
+                    return;
+                }
+                char c = S.charAt(i);
+                if (!isWord(c)) {
+                    continue;
                 }
-                if (minMatch > 0) {
-                    isDone = true;
-                    return i;
+                if (seen + count >= 2 && c == prev2) {
+                    centers[segment] = count - 1;
+                    int current;
+                    while (segment < (current = firstSegment.get()) && !firstSegment.compareAndSet(current, segment)) {
+                    }
+                    return;
                 }
+                prev2 = prev1;
+                prev1 = c;
+                count++;
             }
-            if (isDone) {
-                break;
+            counts[segment] = count;
+        }
+    }
+
+    /** Items per task below which atIndexAll() stops splitting a batch */
+    static final int BATCH_SPLIT_THRESHOLD = 1024;
+
+    /**
+     * atIndex() of every item, in iteration order.
+     *
+     * An item costs no allocation at all: atIndex() keeps only the last two
+     * word characters, so there is no scratch buffer to share between items.
+     */
+    public static int[] atIndexAll(Iterable<? extends CharSequence> items) {
+
+        int[] results = new int[(items instanceof Collection) ? ((Collection<?>) items).size() : 16];
+        int n = 0;
+        for (CharSequence item : items) {
+            if (n == results.length) {
+                results = Arrays.copyOf(results, n * 2);
+            }
+            results[n++] = atIndex(item);
+        }
+        return (n == results.length) ? results : Arrays.copyOf(results, n);
+    }
+
+    /**
+     * atIndexAll() with the items split into ranges answered on the pool;
+     * small batches are answered on the calling thread
+     */
+    public static int[] atIndexAll(List<? extends CharSequence> items, ForkJoinPool pool) {
+
+        if (items.size() <= BATCH_SPLIT_THRESHOLD) {
+            return atIndexAll(items);
+        }
+
+        CharSequence[] array = items.toArray(new CharSequence[items.size()]);
+        int[] results = new int[array.length];
+        pool.invoke(new BatchTask(array, results, 0, array.length));
+        return results;
+    }
+
+    /**
+     * BatchTask: atIndex() of items[from, to) into results, split in halves
+     * down to BATCH_SPLIT_THRESHOLD items
+     */
+    static class BatchTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        final CharSequence[] items;
+        final int[] results;
+        final int from;
+        final int to;
+
+        BatchTask(CharSequence[] items, int[] results, int from, int to) {
+            this.items = items;
+            this.results = results;
+            this.from = from;
+            this.to = to;
+        }
+
+        protected void compute() {
+
+            if (to - from > BATCH_SPLIT_THRESHOLD) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new BatchTask(items, results, from, mid),
+                          new BatchTask(items, results, mid, to));
+                return;
+            }
+
+            for (int i=from; i<to; i++) {
+                results[i] = atIndex(items[i]);
+            }
+        }
+    }
+
+    /** Chars (or bytes) read from a stream at a time */
+    static final int CHUNK_SIZE = 8192;
+
+    /**
+     * Receives the symmetric centers of a stream as they are found
+     */
+    public interface CenterListener {
+
+        /**
+         * Called with the (filtered) index of each center in order; return
+         * false to stop reading the stream
+         */
+        boolean center(long index);
+    }
+
+    /**
+     * CenterScanner: the atIndex() state for one stream - the last two word
+     * characters and how many there have been - fed one character at a time
+     */
+    static class CenterScanner {
+
+        char prev2 = 0;
+        char prev1 = 0;
+        long len = 0;
+
+        /**
+         * Filtered index of the center completed by c, else -1
+         */
+        long feed(char c) {
+            if (!isWord(c)) {
+                return -1;
+            }
+            long center = (len >= 2 && c == prev2) ? len - 1 : -1;
+            prev2 = prev1;
+            prev1 = c;
+            len++;
+            return center;
+        }
+
+        /**
+         * atIndex() of a stream that ended without a center
+         */
+        long noCenter() {
+            return (len == 1) ? 0 : -1;
+        }
+    }
+
+    /**
+     * atIndex() of everything the reader delivers, read CHUNK_SIZE chars at a
+     * time; returns as soon as the first center is found, without reading
+     * the rest
+     */
+    public static long atIndex(Reader in) throws IOException {
+        final long[] first = { -1 };
+        CenterScanner scanner = scan(in, new CenterListener() {
+            public boolean center(long index) {
+                first[0] = index;
+                return false;
+            }
+        });
+        return (first[0] >= 0) ? first[0] : scanner.noCenter();
+    }
+
+    /**
+     * atIndex() of a byte stream - each byte is one character, which is
+     * exact for ASCII and, as no byte of a multi-byte UTF-8 character is a
+     * word character, for UTF-8 as well
+     */
+    public static long atIndex(InputStream in) throws IOException {
+        final long[] first = { -1 };
+        CenterScanner scanner = scan(in, new CenterListener() {
+            public boolean center(long index) {
+                first[0] = index;
+                return false;
+            }
+        });
+        return (first[0] >= 0) ? first[0] : scanner.noCenter();
+    }
+
+    /**
+     * atIndex() of the channel from its current position (bytes as for
+     * atIndex(InputStream))
+     */
+    public static long atIndex(FileChannel channel) throws IOException {
+        final long[] first = { -1 };
+        CenterScanner scanner = scan(channel, new CenterListener() {
+            public boolean center(long index) {
+                first[0] = index;
+                return false;
+            }
+        });
+        return (first[0] >= 0) ? first[0] : scanner.noCenter();
+    }
+
+    /**
+     * Hands every center of the reader to the listener as soon as it is
+     * read, until the listener returns false or the reader ends
+     */
+    public static CenterScanner scan(Reader in, CenterListener listener) throws IOException {
+
+        CenterScanner scanner = new CenterScanner();
+        char[] chunk = new char[CHUNK_SIZE];
+        int n;
+        while ((n = in.read(chunk)) >= 0) {
+            for (int i=0; i<n; i++) {
+                long center = scanner.feed(chunk[i]);
+                if (center >= 0 && !listener.center(center)) {
+                    return scanner;
+                }
+            }
+        }
+        return scanner;
+    }
+
+    public static CenterScanner scan(InputStream in, CenterListener listener) throws IOException {
+
+        CenterScanner scanner = new CenterScanner();
+        byte[] chunk = new byte[CHUNK_SIZE];
+        int n;
+        while ((n = in.read(chunk)) >= 0) {
+            for (int i=0; i<n; i++) {
+                long center = scanner.feed((char) (chunk[i] & 0xff));
+                if (center >= 0 && !listener.center(center)) {
+                    return scanner;
+                }
+            }
+        }
+        return scanner;
+    }
+
+    public static CenterScanner scan(FileChannel channel, CenterListener listener) throws IOException {
+
+        CenterScanner scanner = new CenterScanner();
+        ByteBuffer chunk = ByteBuffer.allocateDirect(CHUNK_SIZE);
+        while (channel.read(chunk) >= 0) {
+            chunk.flip();
+            while (chunk.hasRemaining()) {
+                long center = scanner.feed((char) (chunk.get() & 0xff));
+                if (center >= 0 && !listener.center(center)) {
+                    return scanner;
+                }
+            }
+            chunk.clear();
+        }
+        return scanner;
+    }
+
+    /**
+     * Radius of the longest symmetric span around every center of S with
+     * its non-word characters removed: the span around center i is
+     * [i - radius[i], i + radius[i]] of the filtered characters.
+     */
+    public static int[] radii(String S) {
+
+        char[] chars = new char[S.length()];
+        int len = filter(S, chars);
+
+        int[] radius = new int[len];
+        manacher(chars, len, radius);
+        return radius;
+    }
+
+    /**
+     * Copies the word characters ([a-zA-Z0-9_], what the regex \w matches)
+     * of s into chars, returning how many there are
+     */
+    static int filter(CharSequence s, char[] chars) {
+        int len = 0;
+        for (int i=0; i<s.length(); i++) {
+            char c = s.charAt(i);
+            if (isWord(c)) {
+                chars[len++] = c;
+            }
+        }
+        return len;
+    }
+
+    static boolean isWord(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_';
+    }
+
+    /**
+     * Manacher's algorithm over chars[0..len): fills radius[] with the odd
+     * length palindrome radius of every center, in linear time.
+     */
+    static void manacher(char[] chars, int len, int[] radius) {
+
+        // rightmost palindrome found so far: [left, right]
+        int left = 0;
+        int right = -1;
+        for (int i=0; i<len; i++) {
+
+            int k = 0;
+            if (i <= right) {
+                k = Math.min(radius[left + right - i], right - i);
+            }
+            while (i - k - 1 >= 0 && i + k + 1 < len && chars[i - k - 1] == chars[i + k + 1]) {
+                k++;
+            }
+
+            radius[i] = k;
+            if (i + k > right) {
+                left = i - k;
+                right = i + k;
             }
         }
-        return -1;
     }
 
 
-    public static void main(String args[]) {
-        
+    public static void main(String args[]) throws IOException {
+
         String s = "abcdefghijklmnopqrstuvwxyzracecar";
 
+        if (args.length > 1 && "-file".equals(args[0])) {
+            FileInputStream in = new FileInputStream(args[1]);
+            try {
+                System.out.println("FindSymmetrical atIndex is " + atIndex(in.getChannel()));
+            } finally {
+                in.close();
+            }
+            return;
+        }
+
         if (args.length > 0) {
             s = args[0];
         }
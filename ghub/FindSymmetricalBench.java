@@ -0,0 +1,77 @@
+/**
+ * FindSymmetricalBench
+ *
+ * Inputs of the FindSymmetrical JMH benchmarks in bench/ (see
+ * bench/pom.xml), and atIndex as it was before the Manacher version, to
+ * measure that against.
+ *
+ * "best" puts a symmetric center at the very start, "worst" has none at
+ * all, so every center is looked at.  The original version is quadratic on
+ * the worst case, so it is only benchmarked up to 100 KB.
+ */
+public class FindSymmetricalBench {
+
+    /**
+     * atIndex as it was before the Manacher version
+     */
+    static int legacyAtIndex(String S) {
+
+        S = S.replaceAll("[\\W]+", "");
+
+        if (S.length() == 1) {
+            return 0;
+        }
+
+        char[] chars = S.toCharArray();
+
+        int minMatch;
+        boolean isProceed;
+
+        for (int i=0; i<S.length(); i++) {
+
+            minMatch = 0;
+            isProceed = false;
+            for (int j=i, m=i; ((j>0) && ((m+1) < S.length())); j--, m++) {
+
+                if (((j == i) && (m == i)) || isProceed){
+                    if (chars[j-1] == chars[m+1]) {
+                        minMatch++;
+                        isProceed = true;
+                    } else {
+                        isProceed = false;
+                    }
+                }
+                if (minMatch > 0) {
+                    return i;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * "aba" followed by filler with no symmetric center
+     */
+    static String best(int size) {
+        StringBuilder sb = new StringBuilder(size);
+        sb.append("aba");
+        while (sb.length() < size) {
+            sb.append("ccdd");
+        }
+        sb.setLength(size);
+        return sb.toString();
+    }
+
+    /**
+     * "aabb" repeated (with some punctuation to filter out) - no character
+     * ever has two equal neighbours
+     */
+    static String worst(int size) {
+        StringBuilder sb = new StringBuilder(size);
+        while (sb.length() < size) {
+            sb.append("aa, bb ");
+        }
+        sb.setLength(size);
+        return sb.toString();
+    }
+}
@@ -0,0 +1,173 @@
+import java.util.Arrays;
+
+/**
+ * SymmetricalIndex
+ *
+ * FindSymmetrical for text that keeps growing: append() only looks at the
+ * appended characters, and the first symmetric center and the longest
+ * symmetric span of everything appended so far are kept up to date, so
+ * both queries are O(1).
+ *
+ * As with FindSymmetrical, non-word characters are dropped and indices are
+ * into the filtered text.  The spans are held in a palindromic tree
+ * (eertree): one node per distinct palindrome, linked to its longest proper
+ * palindromic suffix.  Each character adds at most one node, found by
+ * following suffix links from the longest palindromic suffix so far, which
+ * is amortized O(1) per character.  Every odd palindrome ever seen is a
+ * node, created where it first ends, so the longest is tracked as nodes are
+ * created.
+ *
+ * Not thread safe.
+ */
+public class SymmetricalIndex {
+
+    /** The imaginary root of length -1 (parent of single characters) */
+    static final int ODD_ROOT = 0;
+
+    /** The root of length 0 (parent of two character palindromes) */
+    static final int EVEN_ROOT = 1;
+
+    /** Filtered text */
+    char[] text = new char[64];
+    int length = 0;
+
+    // node arrays: palindrome length, suffix link, and the children as a
+    // list of (edge character, node) linked through nextSibling
+    int[] len = new int[64];
+    int[] link = new int[64];
+    int[] firstChild = new int[64];
+    int[] nextSibling = new int[64];
+    char[] edge = new char[64];
+    int nodes = 0;
+
+    /** Node of the longest palindromic suffix of the text */
+    int last = EVEN_ROOT;
+
+    int firstCenter = -1;
+    int longestCenter = -1;
+    int longestRadius = -1;
+
+
+    public SymmetricalIndex() {
+        newNode(-1, ODD_ROOT);
+        newNode(0, ODD_ROOT);
+    }
+
+    /**
+     * Adds the word characters of s to the end of the text
+     */
+    public SymmetricalIndex append(CharSequence s) {
+        for (int i=0; i<s.length(); i++) {
+            char c = s.charAt(i);
+            if (FindSymmetrical.isWord(c)) {
+                add(c);
+            }
+        }
+        return this;
+    }
+
+    /**
+     * FindSymmetrical.atIndex() of the text: the first center of radius >=
+     * 1, 0 for a single character, else -1
+     */
+    public int atIndex() {
+        if (firstCenter < 0 && length == 1) {
+            return 0;
+        }
+        return firstCenter;
+    }
+
+    /**
+     * Center of the longest symmetric span (the first one if there are
+     * several), -1 for no text
+     */
+    public int longestCenter() {
+        return longestCenter;
+    }
+
+    /**
+     * Radius of the longest symmetric span: it is [longestCenter() - radius,
+     * longestCenter() + radius]; -1 for no text
+     */
+    public int longestRadius() {
+        return longestRadius;
+    }
+
+    /**
+     * Number of (word) characters appended
+     */
+    public int length() {
+        return length;
+    }
+
+    void add(char c) {
+
+        if (length == text.length) {
+            text = Arrays.copyOf(text, length * 2);
+        }
+        text[length] = c;
+
+        if (length >= 2 && text[length - 2] == c && firstCenter < 0) {
+            firstCenter = length - 1;
+        }
+
+        int parent = suffixBefore(last, c);
+        int node = child(parent, c);
+        if (node < 0) {
+            node = newNode(len[parent] + 2, (len[parent] == -1) ? EVEN_ROOT : child(suffixBefore(link[parent], c), c));
+            edge[node] = c;
+            nextSibling[node] = firstChild[parent];
+            firstChild[parent] = node;
+
+            int radius = len[node] >> 1;
+            if ((len[node] & 1) == 1 && radius > longestRadius) {
+                longestRadius = radius;
+                longestCenter = length - radius;
+            }
+        }
+        last = node;
+        length++;
+    }
+
+    /**
+     * The longest palindromic suffix, starting from node and following
+     * suffix links, that c extends at both ends (the odd root always does)
+     */
+    int suffixBefore(int node, char c) {
+        while (true) {
+            int before = length - 1 - len[node];
+            if (before >= 0 && text[before] == c) {
+                return node;
+            }
+            if (node == ODD_ROOT) {
+                return node;
+            }
+            node = link[node];
+        }
+    }
+
+    int child(int node, char c) {
+        for (int n = firstChild[node]; n > 0; n = nextSibling[n]) {
+            if (edge[n] == c) {
+                return n;
+            }
+        }
+        return -1;
+    }
+
+    int newNode(int length, int suffixLink) {
+        if (nodes == len.length) {
+            int size = nodes * 2;
+            len = Arrays.copyOf(len, size);
+            link = Arrays.copyOf(link, size);
+            firstChild = Arrays.copyOf(firstChild, size);
+            nextSibling = Arrays.copyOf(nextSibling, size);
+            edge = Arrays.copyOf(edge, size);
+        }
+        len[nodes] = length;
+        link[nodes] = suffixLink;
+        firstChild[nodes] = 0;
+        return nodes++;
+    }
+
+}